@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads textures and images into a texture registry in the background, decoding them in parallel across a pool of threads.
+ * Textures are decoded and built (mip chain and all) on the pool, and only handed to the registry to be packed once ready,
+ * so the registry's lock is never held while decoding. Each batch queued returns a future that completes once the whole
+ * batch is in, so callers can wait on just the assets they need first while the rest carry on loading.
+ * Progress across everything queued can be read at any time, such as by a LoadingScreen.
+ */
+public class AssetLoader {
+
+    //The registry the assets are loaded into.
+    private final TextureRegistry registry;
+
+    //The threads decoding assets.
+    private final ExecutorService pool;
+
+    //The number of assets queued, finished (loaded or failed) and failed.
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger finished = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Creates a loader which decodes assets into the given registry, on the given number of threads.
+     */
+    public AssetLoader(TextureRegistry registry_, int threads)
+    {
+        registry = registry_;
+
+        //Run the threads as daemons, so they don't keep the game open.
+        AtomicInteger threadIndex = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(Math.max(threads, 1), task -> {
+            Thread thread = new Thread(task, "gadzooks-assets-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues textures to be loaded, skipping those already in the registry.
+     * @return A future completing once every texture is in the registry, or completing exceptionally if any failed to load.
+     */
+    public CompletableFuture<Void> LoadTextures(Collection<String> filePaths)
+    {
+        return Queue(filePaths, true);
+    }
+
+    /**
+     * Queues images (such as for Sprites) to be loaded, skipping those already in the registry.
+     * @return A future completing once every image is in the registry, or completing exceptionally if any failed to load.
+     */
+    public CompletableFuture<Void> LoadImages(Collection<String> filePaths)
+    {
+        return Queue(filePaths, false);
+    }
+
+    /**
+     * Queues a task on the pool for each texture or image, and returns a future for them all.
+     */
+    private CompletableFuture<Void> Queue(Collection<String> filePaths, boolean textures)
+    {
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[filePaths.size()];
+        int i = 0;
+        for (String filePath : filePaths)
+        {
+            queued.incrementAndGet();
+            tasks[i++] = CompletableFuture.runAsync(() -> Load(filePath, textures), pool);
+        }
+        return CompletableFuture.allOf(tasks);
+    }
+
+    /**
+     * Loads a single texture or image into the registry, on a pool thread.
+     */
+    private void Load(String filePath, boolean texture)
+    {
+        try
+        {
+            if (texture ? registry.isLoaded(filePath) : registry.isImageLoaded(filePath)) { return; }
+            if (texture) { registry.Adopt(filePath, new GadzookTexture(TextureRegistry.ReadImage(filePath), filePath)); }
+            else { registry.AdoptImage(filePath, TextureRegistry.ReadImage(filePath)); }
+        }
+        catch (IOException e)
+        {
+            failed.incrementAndGet();
+            throw new UncheckedIOException(e);
+        }
+        finally
+        {
+            finished.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the fraction (0 to 1) of everything queued that has finished loading, or failed to.
+     */
+    public float getProgress()
+    {
+        int total = queued.get();
+        return total == 0 ? 1 : Math.min(1, finished.get() / (float)total);
+    }
+
+    /**
+     * Returns the number of assets queued.
+     */
+    public int getQueuedCount() { return queued.get(); }
+
+    /**
+     * Returns the number of assets that have finished loading, or failed to.
+     */
+    public int getFinishedCount() { return finished.get(); }
+
+    /**
+     * Returns the number of assets that failed to load.
+     */
+    public int getFailedCount() { return failed.get(); }
+
+    /**
+     * Stops the loader's threads once everything queued has finished.
+     */
+    public void Shutdown() { pool.shutdown(); }
+}
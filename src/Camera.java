@@ -0,0 +1,229 @@
+/**
+ * Represents the camera a scene is viewed through.
+ * Per-column ray offsets are precomputed whenever the field of view, resolution or projection changes,
+ * and the view direction only whenever the angle changes, so casting a frame needs no trigonometry.
+ * Not thread safe, the camera should be changed between frames.
+ */
+public class Camera {
+
+    //The field of view of the camera, in degrees.
+    private int fieldOfView;
+
+    //The number of columns (rays) across the view.
+    private int resolution;
+
+    //How rays are spread across the field of view.
+    private CameraProjection projection;
+
+    //The world angle the camera is facing, and the unit direction vector for it.
+    private float angle = 0;
+    private float viewX = 1;
+    private float viewY = 0;
+
+    //Per column, the offset of the ray along the camera plane for a view direction of unit length.
+    private float[] planeOffset;
+
+    //Per column, the angle of the ray relative to the view direction.
+    private float[] angleOffset;
+
+    //Per column, the length of the ray direction, which turns perpendicular distances into true distances.
+    private float[] rayLength;
+
+    //The scales from an offset along the camera plane (planar) or an angle (angular) to columns, for getColumn().
+    private float columnsPerPlaneUnit;
+    private float columnsPerRadian;
+
+    /**
+     * Creates a camera with the given field of view (in degrees), resolution and projection.
+     */
+    public Camera(int fieldOfView_, int resolution_, CameraProjection projection_)
+    {
+        fieldOfView = fieldOfView_;
+        resolution = resolution_;
+        projection = projection_;
+        RebuildTables();
+    }
+
+    /**
+     * Rebuilds the per-column tables for the current field of view, resolution and projection.
+     */
+    private void RebuildTables()
+    {
+        planeOffset = new float[resolution];
+        angleOffset = new float[resolution];
+        rayLength = new float[resolution];
+
+        double fovRadians = Math.toRadians(fieldOfView);
+        double tanHalfFov = Math.tan(fovRadians / 2);
+        columnsPerPlaneUnit = (float)(resolution / (2 * tanHalfFov));
+        columnsPerRadian = (float)(resolution / fovRadians);
+        for (int i=0; i<resolution; i++)
+        {
+            //Rays start at half the FOV back, and step evenly across it (either in angle, or along the plane).
+            double offset;
+            double tangent;
+            if (projection == CameraProjection.Angular)
+            {
+                offset = -fovRadians / 2 + i * fovRadians / resolution;
+                tangent = Math.tan(offset);
+            }
+            else
+            {
+                tangent = tanHalfFov * (2.0 * i / resolution - 1);
+                offset = Math.atan(tangent);
+            }
+
+            planeOffset[i] = (float)tangent;
+            angleOffset[i] = (float)offset;
+            rayLength[i] = (float)Math.sqrt(1 + tangent * tangent);
+        }
+    }
+
+    /**
+     * Sets the world angle the camera is facing.
+     * The view direction is only recalculated when the angle actually changes.
+     */
+    public void setAngle(float angle_)
+    {
+        if (angle_ == angle) { return; }
+        angle = angle_;
+        viewX = (float)Math.cos(angle);
+        viewY = (float)Math.sin(angle);
+    }
+
+    /**
+     * Sets the world angle and view direction together, for callers that already have both (such as when interpolating).
+     * The direction is normalised, so this needs no trigonometry.
+     */
+    public void setView(float angle_, float dirX, float dirY)
+    {
+        float length = (float)Math.sqrt(dirX * dirX + dirY * dirY);
+        if (length == 0) { return; }
+        angle = angle_;
+        viewX = dirX / length;
+        viewY = dirY / length;
+    }
+
+    /**
+     * Sets the field of view of the camera, in degrees.
+     */
+    public void setFieldOfView(int fieldOfView_)
+    {
+        if (fieldOfView_ == fieldOfView) { return; }
+        fieldOfView = fieldOfView_;
+        RebuildTables();
+    }
+
+    /**
+     * Sets the number of columns (rays) across the view.
+     */
+    public void setResolution(int resolution_)
+    {
+        if (resolution_ == resolution) { return; }
+        resolution = resolution_;
+        RebuildTables();
+    }
+
+    /**
+     * Sets how rays are spread across the field of view.
+     */
+    public void setProjection(CameraProjection projection_)
+    {
+        if (projection_ == projection) { return; }
+        projection = projection_;
+        RebuildTables();
+    }
+
+    /**
+     * Returns the world angle the camera is facing.
+     */
+    public float getAngle() { return angle; }
+
+    /**
+     * Returns the X component of the unit view direction.
+     */
+    public float getViewX() { return viewX; }
+
+    /**
+     * Returns the Y component of the unit view direction.
+     */
+    public float getViewY() { return viewY; }
+
+    /**
+     * Returns the field of view of the camera, in degrees.
+     */
+    public int getFieldOfView() { return fieldOfView; }
+
+    /**
+     * Returns the number of columns (rays) across the view.
+     */
+    public int getResolution() { return resolution; }
+
+    /**
+     * Returns how rays are spread across the field of view.
+     */
+    public CameraProjection getProjection() { return projection; }
+
+    /**
+     * Returns the X component of the ray direction for a column.
+     * The direction is one unit long along the view direction, so distances along it are perpendicular to the camera.
+     */
+    public float getRayX(int column) { return viewX - viewY * planeOffset[column]; }
+
+    /**
+     * Returns the Y component of the ray direction for a column.
+     * The direction is one unit long along the view direction, so distances along it are perpendicular to the camera.
+     */
+    public float getRayY(int column) { return viewY + viewX * planeOffset[column]; }
+
+    /**
+     * Returns the offset of a column's ray along the camera plane, for a view direction of unit length.
+     */
+    public float getPlaneOffset(int column) { return planeOffset[column]; }
+
+    /**
+     * Returns the world angle of a column's ray, between 0 and 2Pi.
+     */
+    public float getRayAngle(int column)
+    {
+        float rayAngle = angle + angleOffset[column];
+        if (rayAngle < 0) { rayAngle += 2*Math.PI; }
+        if (rayAngle > 2*Math.PI) { rayAngle -= 2*Math.PI; }
+        return rayAngle;
+    }
+
+    /**
+     * Returns the (fractional) column a direction falls on, the inverse of the ray tables.
+     * Column N starts at N and ends at N + 1, directions outside the field of view fall outside 0 to the resolution.
+     * @param planeOffset The offset of the direction along the camera plane, for a view direction of unit length.
+     */
+    public float getColumn(float planeOffset)
+    {
+        if (projection == CameraProjection.Angular)
+        {
+            return Atan(planeOffset) * columnsPerRadian + resolution * 0.5f;
+        }
+        return planeOffset * columnsPerPlaneUnit + resolution * 0.5f;
+    }
+
+    /**
+     * Approximates the arctangent with a polynomial, to within a few millionths of a radian (well under a hundredth of a column),
+     * so projecting sprites each frame needs no trigonometry.
+     */
+    private static float Atan(float x)
+    {
+        //The polynomial covers -1 to 1, beyond that atan(x) = +-Pi/2 - atan(1/x).
+        boolean inverted = Math.abs(x) > 1;
+        float t = inverted ? 1 / x : x;
+        float t2 = t * t;
+        float result = t * (0.99997726f + t2 * (-0.33262347f + t2 * (0.19354346f + t2 * (-0.11643287f + t2 * (0.05265332f + t2 * -0.01172120f)))));
+        if (!inverted) { return result; }
+        return (x > 0 ? (float)(Math.PI / 2) : (float)(-Math.PI / 2)) - result;
+    }
+
+    /**
+     * Returns the length of a column's ray direction.
+     * Multiplying a perpendicular distance by this gives the true distance along the ray.
+     */
+    public float getRayLength(int column) { return rayLength[column]; }
+}
@@ -0,0 +1,9 @@
+/**
+ * The ways a camera can spread its rays across the field of view.
+ */
+public enum CameraProjection {
+    //Rays are spaced at equal angles across the field of view.
+    Angular,
+    //Rays are spaced evenly along a camera plane, giving a true perspective projection.
+    Planar
+}
@@ -0,0 +1,132 @@
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A fixed pool of threads that splits the columns of a view into bands, and renders each band in parallel.
+ * The calling thread renders the first band itself, and waits at a barrier for the rest before returning.
+ */
+public class ColumnWorkers {
+
+    /**
+     * Renders a band of columns, from the first column up to (but not including) the last.
+     */
+    public interface Band
+    {
+        void Render(int from, int to);
+    }
+
+    //The number of bands (including the calling thread's) that columns are split into.
+    private final int bandCount;
+
+    //Barriers which release the workers for a frame, and wait for them to finish it.
+    private final CyclicBarrier startBarrier;
+    private final CyclicBarrier endBarrier;
+
+    //The worker threads.
+    private final Thread[] workers;
+
+    //The work for the current frame.
+    private volatile Band band;
+    private volatile int columns;
+
+    //The first failure thrown by a worker this frame, if any.
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Creates a pool which splits columns into the given number of bands.
+     * One fewer worker thread than bands is started, as the calling thread renders a band itself.
+     */
+    public ColumnWorkers(int bands)
+    {
+        bandCount = Math.max(bands, 1);
+        startBarrier = new CyclicBarrier(bandCount);
+        endBarrier = new CyclicBarrier(bandCount);
+
+        //Start the workers as daemons, so they don't keep the game open.
+        workers = new Thread[bandCount - 1];
+        for (int i=0; i<workers.length; i++)
+        {
+            int bandIndex = i + 1;
+            workers[i] = new Thread(() -> WorkerLoop(bandIndex), "gadzooks-columns-" + bandIndex);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Returns the number of bands columns are split into.
+     */
+    public int getBandCount() { return bandCount; }
+
+    /**
+     * Renders the given number of columns split across all bands, returning once every band has finished.
+     */
+    public void Run(int columnCount, Band toRun)
+    {
+        band = toRun;
+        columns = columnCount;
+        failure.set(null);
+
+        //Release the workers, render our own band, then wait for the rest.
+        Await(startBarrier);
+        try { RenderBand(0); }
+        finally { Await(endBarrier); }
+
+        //Pass on anything a worker threw.
+        Throwable thrown = failure.get();
+        if (thrown instanceof RuntimeException) { throw (RuntimeException)thrown; }
+        if (thrown instanceof Error) { throw (Error)thrown; }
+    }
+
+    /**
+     * Stops all of the worker threads.
+     */
+    public void Close()
+    {
+        for (Thread worker : workers) { worker.interrupt(); }
+    }
+
+    /**
+     * The loop run by each worker thread, rendering one band per frame.
+     */
+    private void WorkerLoop(int bandIndex)
+    {
+        try
+        {
+            while (true)
+            {
+                startBarrier.await();
+
+                //Catch everything, errors included, so the calling thread is never left waiting at the end barrier.
+                try { RenderBand(bandIndex); }
+                catch (Throwable e) { failure.compareAndSet(null, e); }
+                endBarrier.await();
+            }
+        }
+        catch (InterruptedException | BrokenBarrierException e) { }
+    }
+
+    /**
+     * Renders the columns belonging to a single band.
+     */
+    private void RenderBand(int bandIndex)
+    {
+        int from = (int)((long)columns * bandIndex / bandCount);
+        int to = (int)((long)columns * (bandIndex + 1) / bandCount);
+        if (from < to) { band.Render(from, to); }
+    }
+
+    /**
+     * Waits at a barrier on the calling thread.
+     */
+    private void Await(CyclicBarrier barrier)
+    {
+        try { barrier.await(); }
+        catch (InterruptedException | BrokenBarrierException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Column workers were stopped mid-frame.", e);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import java.awt.Shape;
+import java.awt.geom.Area;
+
+/**
+ * A set of rectangles of an image that have changed, and need clearing, redrawing and copying to the screen.
+ * Overlapping rectangles are merged as they're added, and the set is kept to a handful of rectangles by
+ * merging whichever pair wastes the least area, so clipping to it stays cheap.
+ * Once most of the image is covered, the whole image is treated as damaged.
+ */
+public class DamageRegion {
+
+    /**
+     * The most separate rectangles kept before merging.
+     */
+    public static final int MaxRects = 4;
+
+    //The fraction of the image that, once covered, makes the whole image damaged.
+    private static final float FullThreshold = 0.75f;
+
+    //The rectangles, as their left, top, right and bottom edges (exclusive).
+    //There's one spare slot, to add into before merging back down.
+    private final int[] left = new int[MaxRects + 1];
+    private final int[] top = new int[MaxRects + 1];
+    private final int[] right = new int[MaxRects + 1];
+    private final int[] bottom = new int[MaxRects + 1];
+    private int count = 0;
+
+    //Whether the whole image is damaged.
+    private boolean full = false;
+
+    //The size of the image, which every rectangle is clipped to.
+    private int width;
+    private int height;
+
+    /**
+     * Empties the region, for an image of the given size.
+     */
+    public void Reset(int width_, int height_)
+    {
+        width = width_;
+        height = height_;
+        count = 0;
+        full = false;
+    }
+
+    /**
+     * Marks the whole image as damaged.
+     */
+    public void AddAll()
+    {
+        full = true;
+        count = 0;
+    }
+
+    /**
+     * Marks a rectangle of the image as damaged.
+     */
+    public void Add(int x, int y, int w, int h)
+    {
+        if (full) { return; }
+
+        //Clip it to the image, ignoring it if nothing's left.
+        int l = Math.max(x, 0), t = Math.max(y, 0);
+        int r = Math.min(x + w, width), b = Math.min(y + h, height);
+        if (l >= r || t >= b) { return; }
+
+        //Grow it to swallow every rectangle it touches, until there's none left to swallow.
+        boolean merged;
+        do
+        {
+            merged = false;
+            for (int i=0; i<count; i++)
+            {
+                if (l > right[i] || r < left[i] || t > bottom[i] || b < top[i]) { continue; }
+                l = Math.min(l, left[i]);
+                t = Math.min(t, top[i]);
+                r = Math.max(r, right[i]);
+                b = Math.max(b, bottom[i]);
+                RemoveAt(i);
+                merged = true;
+                break;
+            }
+        } while (merged);
+
+        left[count] = l;
+        top[count] = t;
+        right[count] = r;
+        bottom[count] = b;
+        count++;
+
+        //Keep to the limit, and give up on tracking rectangles once most of the image is covered.
+        if (count > MaxRects) { MergeCheapestPair(); }
+        if (getArea() >= (long)width * height * FullThreshold) { AddAll(); }
+    }
+
+    /**
+     * Marks everything damaged in another region as damaged in this one.
+     */
+    public void Add(DamageRegion other)
+    {
+        if (other.full) { AddAll(); return; }
+        for (int i=0; i<other.count; i++)
+        {
+            Add(other.left[i], other.top[i], other.right[i] - other.left[i], other.bottom[i] - other.top[i]);
+        }
+    }
+
+    /**
+     * Makes this region a copy of another.
+     */
+    public void Set(DamageRegion other)
+    {
+        Reset(other.width, other.height);
+        Add(other);
+    }
+
+    /**
+     * Removes the rectangle at the given index, moving the last one into its place.
+     */
+    private void RemoveAt(int i)
+    {
+        count--;
+        left[i] = left[count];
+        top[i] = top[count];
+        right[i] = right[count];
+        bottom[i] = bottom[count];
+    }
+
+    /**
+     * Merges the two rectangles whose bounding box adds the least undamaged area.
+     */
+    private void MergeCheapestPair()
+    {
+        int bestA = 0, bestB = 1;
+        long bestWaste = Long.MAX_VALUE;
+        for (int a=0; a<count; a++)
+        {
+            for (int b=a+1; b<count; b++)
+            {
+                long box = (long)(Math.max(right[a], right[b]) - Math.min(left[a], left[b]))
+                         * (Math.max(bottom[a], bottom[b]) - Math.min(top[a], top[b]));
+                long waste = box - getRectArea(a) - getRectArea(b);
+                if (waste < bestWaste) { bestWaste = waste; bestA = a; bestB = b; }
+            }
+        }
+
+        //The merged box may now touch others, so add it back in.
+        int l = Math.min(left[bestA], left[bestB]), t = Math.min(top[bestA], top[bestB]);
+        int r = Math.max(right[bestA], right[bestB]), b = Math.max(bottom[bestA], bottom[bestB]);
+        RemoveAt(bestB);
+        RemoveAt(bestA);
+        Add(l, t, r - l, b - t);
+    }
+
+    /**
+     * Returns the area of the rectangle at the given index.
+     */
+    private long getRectArea(int i)
+    {
+        return (long)(right[i] - left[i]) * (bottom[i] - top[i]);
+    }
+
+    /**
+     * Returns the number of pixels damaged.
+     */
+    public long getArea()
+    {
+        if (full) { return (long)width * height; }
+        long area = 0;
+        for (int i=0; i<count; i++) { area += getRectArea(i); }
+        return area;
+    }
+
+    /**
+     * Returns whether nothing is damaged.
+     */
+    public boolean isEmpty() { return !full && count == 0; }
+
+    /**
+     * Returns whether the whole image is damaged.
+     */
+    public boolean isFull() { return full; }
+
+    /**
+     * Returns the number of separate rectangles damaged, zero if the whole image is.
+     */
+    public int getCount() { return count; }
+
+    /**
+     * Returns the left edge of the damaged rectangle at the given index.
+     */
+    public int getX(int i) { return left[i]; }
+
+    /**
+     * Returns the top edge of the damaged rectangle at the given index.
+     */
+    public int getY(int i) { return top[i]; }
+
+    /**
+     * Returns the width of the damaged rectangle at the given index.
+     */
+    public int getWidth(int i) { return right[i] - left[i]; }
+
+    /**
+     * Returns the height of the damaged rectangle at the given index.
+     */
+    public int getHeight(int i) { return bottom[i] - top[i]; }
+
+    /**
+     * Returns the damaged area as a shape to clip to, or null if the whole image is damaged.
+     */
+    public Shape getShape()
+    {
+        if (full) { return null; }
+        Area area = new Area();
+        for (int i=0; i<count; i++)
+        {
+            area.add(new Area(new java.awt.Rectangle(left[i], top[i], right[i] - left[i], bottom[i] - top[i])));
+        }
+        return area;
+    }
+}
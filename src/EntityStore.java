@@ -0,0 +1,302 @@
+import java.util.Arrays;
+
+/**
+ * Holds many simple moving, animated things (entities) and ticks them all at once.
+ * Rather than an object per entity with its own Tick(), each component (position, velocity, animation) is kept
+ * in its own primitive array, so ticking is a handful of tight loops over packed floats that never allocate.
+ * Entities are kept packed at the front of the arrays, and removing one moves the last into its place,
+ * so an entity's index changes over its life and it should be referred to by its ID instead.
+ * IDs are small and dense, indexing straight into an array of indices, and the IDs of removed entities are reused,
+ * so don't hold onto the ID of an entity after removing it.
+ *
+ * Creating, removing and ticking all lock the store, so entities can be created from any thread,
+ * but the arrays returned by the getters should only be read on the ticking thread.
+ */
+public class EntityStore {
+
+    //The number of entities in the store, which fill the start of every array.
+    private int count = 0;
+
+    //The ID of each entity, and the index of each ID (-1 for IDs not in use).
+    private int[] ids;
+    private int[] indices = new int[0];
+
+    //The IDs of removed entities, waiting to be reused, and the next never used ID.
+    private int[] freeIds = new int[16];
+    private int freeCount = 0;
+    private int nextId = 0;
+
+    //The position of each entity, and its velocity per second, in world units.
+    private float[] xs;
+    private float[] ys;
+    private float[] velocityXs;
+    private float[] velocityYs;
+
+    //The collision radius of each entity, in world units.
+    private float[] radii;
+
+    //The current animation frame of each entity, its number of frames, how long each frame lasts (in seconds),
+    //how long it's been on the current frame, and whether it loops.
+    private int[] frames;
+    private int[] frameCounts;
+    private float[] frameTimes;
+    private float[] frameElapsed;
+    private boolean[] looping;
+
+    //How far each entity is moving this tick, handed to the collider.
+    private float[] moveXs;
+    private float[] moveYs;
+
+    //The collider entities are moved through, or null for them to move freely.
+    private GridCollider collider = null;
+
+    /**
+     * Creates an empty store, with room for the given number of entities before it has to grow.
+     */
+    public EntityStore(int capacity)
+    {
+        Resize(Math.max(capacity, 16));
+    }
+
+    /**
+     * Adds an entity, standing still and not animated.
+     * @param x The X position of the entity, in world units.
+     * @param y The Y position of the entity, in world units.
+     * @param radius The collision radius of the entity, in world units.
+     * @return The ID of the new entity.
+     */
+    public synchronized int Create(float x, float y, float radius)
+    {
+        //Reuse a free ID if there is one, so the index array only grows with the most entities ever alive at once.
+        int id;
+        if (freeCount > 0) { id = freeIds[--freeCount]; }
+        else
+        {
+            id = nextId++;
+            if (id == indices.length) { indices = Arrays.copyOf(indices, Math.max(16, id * 2)); }
+        }
+
+        if (count == ids.length) { Resize(count * 2); }
+
+        int i = count++;
+        ids[i] = id;
+        xs[i] = x;
+        ys[i] = y;
+        velocityXs[i] = 0;
+        velocityYs[i] = 0;
+        radii[i] = radius;
+        frames[i] = 0;
+        frameCounts[i] = 1;
+        frameTimes[i] = 0;
+        frameElapsed[i] = 0;
+        looping[i] = false;
+        indices[id] = i;
+        return id;
+    }
+
+    /**
+     * Removes an entity, moving the last entity into its place.
+     * @return Whether the entity was in the store.
+     */
+    public synchronized boolean Remove(int id)
+    {
+        int i = getIndex(id);
+        if (i < 0) { return false; }
+        indices[id] = -1;
+        if (freeCount == freeIds.length) { freeIds = Arrays.copyOf(freeIds, freeCount * 2); }
+        freeIds[freeCount++] = id;
+
+        //Fill the gap with the last entity, to keep the arrays packed.
+        int last = --count;
+        if (i != last)
+        {
+            ids[i] = ids[last];
+            xs[i] = xs[last];
+            ys[i] = ys[last];
+            velocityXs[i] = velocityXs[last];
+            velocityYs[i] = velocityYs[last];
+            radii[i] = radii[last];
+            frames[i] = frames[last];
+            frameCounts[i] = frameCounts[last];
+            frameTimes[i] = frameTimes[last];
+            frameElapsed[i] = frameElapsed[last];
+            looping[i] = looping[last];
+            indices[ids[i]] = i;
+        }
+        return true;
+    }
+
+    /**
+     * Grows (or shrinks) every array to the given capacity.
+     */
+    private void Resize(int capacity)
+    {
+        ids = ids == null ? new int[capacity] : Arrays.copyOf(ids, capacity);
+        xs = xs == null ? new float[capacity] : Arrays.copyOf(xs, capacity);
+        ys = ys == null ? new float[capacity] : Arrays.copyOf(ys, capacity);
+        velocityXs = velocityXs == null ? new float[capacity] : Arrays.copyOf(velocityXs, capacity);
+        velocityYs = velocityYs == null ? new float[capacity] : Arrays.copyOf(velocityYs, capacity);
+        radii = radii == null ? new float[capacity] : Arrays.copyOf(radii, capacity);
+        frames = frames == null ? new int[capacity] : Arrays.copyOf(frames, capacity);
+        frameCounts = frameCounts == null ? new int[capacity] : Arrays.copyOf(frameCounts, capacity);
+        frameTimes = frameTimes == null ? new float[capacity] : Arrays.copyOf(frameTimes, capacity);
+        frameElapsed = frameElapsed == null ? new float[capacity] : Arrays.copyOf(frameElapsed, capacity);
+        looping = looping == null ? new boolean[capacity] : Arrays.copyOf(looping, capacity);
+        moveXs = new float[capacity];
+        moveYs = new float[capacity];
+    }
+
+    /**
+     * Advances every entity by a single step, moving them by their velocity (through the collider, if there is one)
+     * and then stepping their animations.
+     * @param delta The length of the step, in seconds.
+     */
+    public synchronized void Tick(float delta)
+    {
+        TickMovement(delta);
+        TickAnimation(delta);
+    }
+
+    /**
+     * Moves every entity by its velocity, sliding along walls if there's a collider.
+     */
+    private void TickMovement(float delta)
+    {
+        if (collider == null)
+        {
+            for (int i=0; i<count; i++)
+            {
+                xs[i] += velocityXs[i] * delta;
+                ys[i] += velocityYs[i] * delta;
+            }
+            return;
+        }
+
+        for (int i=0; i<count; i++)
+        {
+            moveXs[i] = velocityXs[i] * delta;
+            moveYs[i] = velocityYs[i] * delta;
+        }
+        collider.MoveAll(xs, ys, moveXs, moveYs, radii, 0, count);
+    }
+
+    /**
+     * Steps every entity's animation on by however many frames have passed.
+     */
+    private void TickAnimation(float delta)
+    {
+        for (int i=0; i<count; i++)
+        {
+            //Entities that aren't animated have no frame time.
+            float frameTime = frameTimes[i];
+            if (frameTime <= 0) { continue; }
+
+            float elapsed = frameElapsed[i] + delta;
+            if (elapsed < frameTime)
+            {
+                frameElapsed[i] = elapsed;
+                continue;
+            }
+
+            int passed = (int)(elapsed / frameTime);
+            int frame = frames[i] + passed;
+            int frameCount = frameCounts[i];
+            if (frame >= frameCount)
+            {
+                //Non-looping animations stop on their last frame.
+                if (looping[i]) { frame %= frameCount; }
+                else
+                {
+                    frame = frameCount - 1;
+                    frameTimes[i] = 0;
+                }
+            }
+            frames[i] = frame;
+            frameElapsed[i] = elapsed - passed * frameTime;
+        }
+    }
+
+    /**
+     * Returns the index of an entity in the component arrays, or -1 if it isn't in the store.
+     * Indices change as entities are removed, so only hold onto one for as long as the store isn't changed.
+     */
+    public synchronized int getIndex(int id)
+    {
+        return id < 0 || id >= nextId ? -1 : indices[id];
+    }
+
+    /**
+     * Returns whether an entity is in the store.
+     */
+    public synchronized boolean contains(int id) { return getIndex(id) >= 0; }
+
+    /**
+     * Sets an entity's position, in world units.
+     */
+    public synchronized void setPosition(int id, float x, float y)
+    {
+        int i = getIndex(id);
+        if (i < 0) { return; }
+        xs[i] = x;
+        ys[i] = y;
+    }
+
+    /**
+     * Sets an entity's velocity, in world units per second.
+     */
+    public synchronized void setVelocity(int id, float velocityX, float velocityY)
+    {
+        int i = getIndex(id);
+        if (i < 0) { return; }
+        velocityXs[i] = velocityX;
+        velocityYs[i] = velocityY;
+    }
+
+    /**
+     * Starts an entity's animation from its first frame.
+     * @param id The entity to animate.
+     * @param frameCount The number of frames in the animation.
+     * @param fps The number of frames shown per second.
+     * @param loop Whether to loop the animation, rather than stopping on its last frame.
+     */
+    public synchronized void Animate(int id, int frameCount, float fps, boolean loop)
+    {
+        int i = getIndex(id);
+        if (i < 0) { return; }
+        frames[i] = 0;
+        frameCounts[i] = Math.max(frameCount, 1);
+        frameTimes[i] = fps > 0 ? 1 / fps : 0;
+        frameElapsed[i] = 0;
+        looping[i] = loop;
+    }
+
+    /**
+     * Sets the collider entities are moved through, or null for them to move freely.
+     */
+    public synchronized void setCollider(GridCollider collider_) { collider = collider_; }
+
+    /**
+     * Returns the number of entities in the store.
+     */
+    public synchronized int getCount() { return count; }
+
+    /**
+     * Returns the ID of every entity, indexed the same as the other arrays. Only the first getCount() are in use.
+     */
+    public int[] getIds() { return ids; }
+
+    /**
+     * Returns the X position of every entity, in world units. Only the first getCount() are in use.
+     */
+    public float[] getXs() { return xs; }
+
+    /**
+     * Returns the Y position of every entity, in world units. Only the first getCount() are in use.
+     */
+    public float[] getYs() { return ys; }
+
+    /**
+     * Returns the current animation frame of every entity. Only the first getCount() are in use.
+     */
+    public int[] getFrames() { return frames; }
+}
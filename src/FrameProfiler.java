@@ -0,0 +1,252 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long each phase of recent frames took, so hitches can be tracked down.
+ * Phases can be recorded from any thread (times from several threads working on the same phase add up),
+ * and are gathered into a frame when the render thread ends it. Finished frames go into a fixed size ring
+ * that readers copy from without locking, so reading stats never holds up rendering.
+ * Register it with JMX to read the stats from outside the game.
+ */
+public class FrameProfiler implements FrameProfilerMBean {
+
+    /**
+     * The phases of a frame that are timed.
+     */
+    public enum Phase
+    {
+        RayCast,
+        Walls,
+        Floors,
+        Sprites,
+        Minimap,
+        Blit,
+        Pause
+    }
+
+    //The number of phases, and the extra columns recorded for each frame after them.
+    private static final int PhaseCount = Phase.values().length;
+    private static final int FrameColumn = PhaseCount;
+    private static final int IntervalColumn = PhaseCount + 1;
+    private static final int AllocatedColumn = PhaseCount + 2;
+    private static final int Columns = PhaseCount + 3;
+
+    //The number of frames kept in the history.
+    private final int capacity;
+
+    //The recorded columns of every frame in the history, a frame per row.
+    //Rows are only written by the render thread, in EndFrame().
+    private final long[] history;
+
+    //The number of frames published to the history, and the count it was at when last reset.
+    private volatile long frameCount = 0;
+    private volatile long resetAt = 0;
+
+    //The phase times recorded since the last frame ended.
+    private final AtomicLongArray pending = new AtomicLongArray(PhaseCount);
+
+    //When the current frame started and the last one ended, and the render thread's allocation count at the start.
+    private long frameStart = 0;
+    private long lastFrameEnd = 0;
+    private long allocatedAtStart = 0;
+
+    //Counts the bytes allocated by each thread, null if the JVM can't.
+    private final com.sun.management.ThreadMXBean allocationCounter;
+
+    //Whether frames are being recorded.
+    private volatile boolean enabled = true;
+
+    /**
+     * Creates a profiler which keeps the given number of recent frames.
+     */
+    public FrameProfiler(int capacity_)
+    {
+        capacity = capacity_;
+        history = new long[capacity_ * Columns];
+
+        //Allocation counting is a HotSpot extension, so it may not be there.
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported())
+        {
+            allocationCounter = (com.sun.management.ThreadMXBean)threads;
+            allocationCounter.setThreadAllocatedMemoryEnabled(true);
+        }
+        else
+        {
+            allocationCounter = null;
+        }
+    }
+
+    /**
+     * Registers this profiler with the platform MBean server, under "gadzooks:type=FrameProfiler".
+     * Failing to register isn't fatal, the profiler still works in game.
+     */
+    public void Register()
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("gadzooks:type=FrameProfiler"));
+        }
+        catch (JMException e)
+        {
+            System.err.println("Failed to register the frame profiler: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Marks the start of a frame. Must be called on the render thread.
+     */
+    public void BeginFrame()
+    {
+        if (!enabled) { return; }
+        frameStart = System.nanoTime();
+        if (allocationCounter != null) { allocatedAtStart = allocationCounter.getCurrentThreadAllocatedBytes(); }
+    }
+
+    /**
+     * Adds time spent in a phase to the current frame. Safe to call from any thread.
+     * @param phase The phase the time was spent in.
+     * @param start When the phase started, from System.nanoTime().
+     */
+    public void Record(Phase phase, long start)
+    {
+        if (!enabled) { return; }
+        pending.addAndGet(phase.ordinal(), System.nanoTime() - start);
+    }
+
+    /**
+     * Marks the end of a frame, and publishes it to the history. Must be called on the render thread.
+     */
+    public void EndFrame()
+    {
+        if (!enabled || frameStart == 0) { return; }
+        long now = System.nanoTime();
+
+        //Fill in the next row, gathering up the phases recorded since the last frame.
+        long frame = frameCount;
+        int row = (int)(frame % capacity) * Columns;
+        for (int i=0; i<PhaseCount; i++)
+        {
+            history[row + i] = pending.getAndSet(i, 0);
+        }
+        history[row + FrameColumn] = now - frameStart;
+        history[row + IntervalColumn] = lastFrameEnd == 0 ? now - frameStart : now - lastFrameEnd;
+        history[row + AllocatedColumn] = allocationCounter == null ? -1 : allocationCounter.getCurrentThreadAllocatedBytes() - allocatedAtStart;
+        lastFrameEnd = now;
+        frameStart = 0;
+
+        //Publish it, the volatile write makes the row visible to readers.
+        frameCount = frame + 1;
+    }
+
+    /**
+     * Copies a column of the frames in the history, oldest first.
+     * The oldest row may be overwritten while it's being copied, so it's left out once the history is full.
+     */
+    private long[] CopyColumn(int column)
+    {
+        long count = frameCount;
+        int frames = (int)Math.min(count - resetAt, capacity - 1);
+        long[] values = new long[Math.max(frames, 0)];
+        for (int i=0; i<values.length; i++)
+        {
+            long frame = count - values.length + i;
+            values[i] = history[(int)(frame % capacity) * Columns + column];
+        }
+        return values;
+    }
+
+    /**
+     * Returns the given percentile (0 to 100) of a column of the history, in nanoseconds.
+     */
+    private long Percentile(int column, double percentile)
+    {
+        long[] values = CopyColumn(column);
+        if (values.length == 0) { return 0; }
+        Arrays.sort(values);
+        int index = (int)Math.ceil(percentile / 100 * values.length) - 1;
+        return values[Math.max(0, Math.min(values.length - 1, index))];
+    }
+
+    /**
+     * Returns the given percentile (0 to 100) of the time spent in a phase per frame, in nanoseconds.
+     */
+    public long getPhasePercentileNanos(Phase phase, double percentile)
+    {
+        return Percentile(phase.ordinal(), percentile);
+    }
+
+    /**
+     * Returns the given percentile (0 to 100) of the time taken to render a frame, in nanoseconds.
+     */
+    public long getFramePercentileNanos(double percentile)
+    {
+        return Percentile(FrameColumn, percentile);
+    }
+
+    /**
+     * Returns the number of frames the history holds.
+     */
+    public int getCapacity() { return capacity; }
+
+    @Override
+    public boolean isEnabled() { return enabled; }
+
+    @Override
+    public void setEnabled(boolean enabled_) { enabled = enabled_; }
+
+    @Override
+    public long getFrameCount() { return frameCount - resetAt; }
+
+    @Override
+    public double getFrameTimeP50Ms() { return getFramePercentileNanos(50) / 1e6; }
+
+    @Override
+    public double getFrameTimeP95Ms() { return getFramePercentileNanos(95) / 1e6; }
+
+    @Override
+    public double getFrameTimeP99Ms() { return getFramePercentileNanos(99) / 1e6; }
+
+    @Override
+    public double getFrameTimeMaxMs() { return getFramePercentileNanos(100) / 1e6; }
+
+    @Override
+    public double getAllocationRateMBPerSecond()
+    {
+        if (allocationCounter == null) { return -1; }
+
+        //Bytes allocated over the history, divided by the time it covers.
+        long[] allocated = CopyColumn(AllocatedColumn);
+        long[] intervals = CopyColumn(IntervalColumn);
+        long bytes = 0, nanos = 0;
+        for (int i=0; i<allocated.length; i++)
+        {
+            bytes += allocated[i];
+            nanos += intervals[i];
+        }
+        if (nanos == 0) { return 0; }
+        return bytes / (nanos / 1e9) / (1024 * 1024);
+    }
+
+    @Override
+    public String[] getPhaseSummary()
+    {
+        Phase[] phases = Phase.values();
+        String[] lines = new String[phases.length];
+        for (int i=0; i<phases.length; i++)
+        {
+            lines[i] = String.format("%-8s p50 %6.2fms  p95 %6.2fms  p99 %6.2fms", phases[i],
+                    getPhasePercentileNanos(phases[i], 50) / 1e6,
+                    getPhasePercentileNanos(phases[i], 95) / 1e6,
+                    getPhasePercentileNanos(phases[i], 99) / 1e6);
+        }
+        return lines;
+    }
+
+    @Override
+    public void Reset() { resetAt = frameCount; }
+}
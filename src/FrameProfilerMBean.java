@@ -0,0 +1,56 @@
+/**
+ * The management interface of a FrameProfiler, so frame timings can be read with JConsole or any other JMX client.
+ * Times are in milliseconds, over the frames still held in the profiler's history.
+ */
+public interface FrameProfilerMBean {
+
+    /**
+     * Returns whether frames are being recorded.
+     */
+    boolean isEnabled();
+
+    /**
+     * Starts or stops recording frames.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Returns the number of frames recorded since the profiler was created or last reset.
+     */
+    long getFrameCount();
+
+    /**
+     * Returns the median time taken to render a frame.
+     */
+    double getFrameTimeP50Ms();
+
+    /**
+     * Returns the 95th percentile time taken to render a frame.
+     */
+    double getFrameTimeP95Ms();
+
+    /**
+     * Returns the 99th percentile time taken to render a frame.
+     */
+    double getFrameTimeP99Ms();
+
+    /**
+     * Returns the longest time taken to render a frame.
+     */
+    double getFrameTimeMaxMs();
+
+    /**
+     * Returns the rate the render thread is allocating memory at, in megabytes per second, or -1 if it can't be measured.
+     */
+    double getAllocationRateMBPerSecond();
+
+    /**
+     * Returns a line per phase giving its p50, p95 and p99 times.
+     */
+    String[] getPhaseSummary();
+
+    /**
+     * Clears the recorded history.
+     */
+    void Reset();
+}
@@ -0,0 +1,102 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a loop to a fixed rate with nanosecond accuracy.
+ * Waits sleep until shortly before each deadline and then spin for the rest, as sleeping alone
+ * can overshoot by a millisecond or more. Deadlines advance by a fixed period rather than from
+ * when each wait finished, so the rate doesn't drift, and deadlines that were already missed are counted.
+ */
+public class FrameScheduler {
+
+    //How long before a deadline to stop sleeping and start spinning, in nanoseconds.
+    private static final long SpinThresholdNanos = 1_500_000;
+
+    //The time between deadlines, in nanoseconds.
+    private volatile long periodNanos;
+
+    //The next deadline, zero before the first wait.
+    private long nextDeadline = 0;
+
+    //The number of deadlines that had already passed when they were waited for.
+    private volatile long missedDeadlines = 0;
+
+    /**
+     * Creates a scheduler which paces to the given rate, in hertz.
+     */
+    public FrameScheduler(double hz)
+    {
+        setRateHertz(hz);
+    }
+
+    /**
+     * Sets the rate to pace to, in hertz.
+     */
+    public void setRateHertz(double hz)
+    {
+        setPeriodNanos((long)(1_000_000_000L / hz));
+    }
+
+    /**
+     * Sets the time between deadlines, in nanoseconds.
+     */
+    public void setPeriodNanos(long period)
+    {
+        periodNanos = Math.max(period, 1);
+    }
+
+    /**
+     * Returns the time between deadlines, in nanoseconds.
+     */
+    public long getPeriodNanos() { return periodNanos; }
+
+    /**
+     * Returns the number of deadlines that had already passed when they were waited for.
+     */
+    public long getMissedDeadlines() { return missedDeadlines; }
+
+    /**
+     * Restarts pacing from now, so the next wait lasts a full period.
+     */
+    public void Reset()
+    {
+        nextDeadline = 0;
+    }
+
+    /**
+     * Waits until the next deadline, and returns the time (from System.nanoTime()) that it was for.
+     * If the deadline has already passed it's counted as missed and this returns straight away,
+     * and if it's more than a whole period late, pacing restarts from now rather than rushing to catch up.
+     */
+    public long WaitForNextFrame()
+    {
+        long now = System.nanoTime();
+        long period = periodNanos;
+        if (nextDeadline == 0) { nextDeadline = now + period; }
+        long deadline = nextDeadline;
+
+        if (now > deadline)
+        {
+            //Missed it. Drop any whole periods we're behind by.
+            missedDeadlines++;
+            if (now - deadline > period) { deadline = now; }
+        }
+        else
+        {
+            //Sleep until close to the deadline.
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > SpinThresholdNanos)
+            {
+                LockSupport.parkNanos(remaining - SpinThresholdNanos);
+            }
+
+            //Spin for the rest.
+            while (System.nanoTime() < deadline)
+            {
+                Thread.onSpinWait();
+            }
+        }
+
+        nextDeadline = deadline + period;
+        return deadline;
+    }
+}
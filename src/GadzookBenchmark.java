@@ -0,0 +1,206 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A benchmark suite for the raycaster, rendering headlessly so results are reproducible without a window.
+ * Each benchmark is warmed up, then timed over a number of rounds, and the best and median time per
+ * operation are reported, so runs on the same machine can be compared between builds.
+ * Run with -Djava.awt.headless=true on machines without a display.
+ */
+public class GadzookBenchmark {
+
+    //The view resolutions and map sizes (in cells) benchmarked.
+    private static final int[] Resolutions = { 120, 240, 480, 800 };
+    private static final int[] MapSizes = { 8, 64, 512 };
+
+    //The size of the image frames are rendered into.
+    private static final int FrameWidth = 1440;
+    private static final int FrameHeight = 600;
+
+    //How long to warm up and time each benchmark for, in milliseconds, and how many rounds to time.
+    private static final int WarmupMs = 500;
+    private static final int RoundMs = 200;
+    private static final int Rounds = 5;
+
+    //Results are folded into this, so the JIT can't remove the work being measured.
+    private static volatile long sink;
+
+    /**
+     * Runs every benchmark and prints the results.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        System.out.printf("%-12s %-8s %-8s %14s %14s%n", "benchmark", "res", "map", "best ns/op", "median ns/op");
+
+        for (int mapSize : MapSizes)
+        {
+            for (int resolution : Resolutions)
+            {
+                GadzooksScene scene = CreateScene(mapSize, resolution);
+                BufferedImage image = new BufferedImage(FrameWidth, FrameHeight, BufferedImage.TYPE_INT_ARGB);
+                float spawnX = scene.map.getSpawnX() * scene.mapUnitSize;
+                float spawnY = scene.map.getSpawnY() * scene.mapUnitSize;
+
+                //Render a frame first, so the ray buffer is sized for the resolution.
+                scene.RenderFrame(image, spawnX, spawnY, 0);
+
+                //A single ray, swept around a full turn.
+                Report("CastRay", resolution, mapSize, Measure(new Benchmark() {
+                    int i = 0;
+                    public void Run()
+                    {
+                        scene.CastRay(spawnX, spawnY, (float)Math.cos(i * 0.01), (float)Math.sin(i * 0.01), 0, scene.hits, 0);
+                        sink += Float.floatToRawIntBits(scene.hits.distance[0]);
+                        i++;
+                    }
+                }));
+
+                //Every ray for a frame, turning a little each time.
+                Report("CastRays", resolution, mapSize, Measure(new Benchmark() {
+                    int i = 0;
+                    public void Run()
+                    {
+                        scene.RenderFrame(image, spawnX, spawnY, (i++ % 628) * 0.01f);
+                    }
+                }, () -> {
+                    scene.CastRays(0, resolution);
+                    sink += scene.hits.cellX[resolution / 2];
+                }));
+
+                //Drawing the walls for a frame from its rays.
+                Report("DrawScene", resolution, mapSize, Measure(new Benchmark() {
+                    int i = 0;
+                    public void Run()
+                    {
+                        scene.RenderFrame(image, spawnX, spawnY, (i++ % 628) * 0.01f);
+                    }
+                }, () -> {
+                    scene.DrawScene(null, 0, resolution);
+                    sink += image.getRGB(FrameWidth - 1, FrameHeight / 2);
+                }));
+
+                //A whole frame, including the minimap.
+                Report("Draw", resolution, mapSize, Measure(new Benchmark() {
+                    int i = 0;
+                    public void Run()
+                    {
+                        scene.RenderFrame(image, spawnX, spawnY, (i++ % 628) * 0.01f);
+                        sink += image.getRGB(FrameWidth - 1, FrameHeight / 2);
+                    }
+                }));
+            }
+        }
+
+        //Loading a texture from disk.
+        Report("LoadTexture", 0, 0, Measure(() -> sink += new GadzookTexture("smallDefaultTexture.png").getWidth()));
+
+        //Loading a texture already in the registry.
+        Report("LoadCachedTexture", 0, 0, Measure(() -> sink += TextureRegistry.getShared().LoadTexture("smallDefaultTexture.png").getWidth()));
+    }
+
+    /**
+     * A single operation to be timed.
+     */
+    interface Benchmark
+    {
+        void Run() throws IOException;
+    }
+
+    /**
+     * Creates a scene with a square map of the given size and view resolution.
+     * Maps bigger than the default are walled in, and randomly filled with a fifth of their cells as walls.
+     */
+    private static GadzooksScene CreateScene(int mapSize, int resolution) throws IOException
+    {
+        GadzooksScene scene = new GadzooksScene();
+        scene.camera.setResolution(resolution);
+        if (mapSize == scene.map.getWidth()) { return scene; }
+
+        //Build the map, seeded so every run benchmarks the same one.
+        GadzookMap map = new GadzookMap(mapSize, mapSize);
+        Random random = new Random(mapSize);
+        for (int y=0; y<mapSize; y++)
+        {
+            for (int x=0; x<mapSize; x++)
+            {
+                boolean edge = x == 0 || y == 0 || x == mapSize - 1 || y == mapSize - 1;
+                if (edge || random.nextInt(5) == 0) { map.setCell(x, y, MapCell.Wall); }
+            }
+        }
+
+        //Spawn in the middle, clearing the cell there.
+        map.setCell(mapSize / 2, mapSize / 2, MapCell.Empty);
+        map.setSpawn(mapSize / 2 + 0.5f, mapSize / 2 + 0.5f);
+        scene.map = map;
+        return scene;
+    }
+
+    /**
+     * Times an operation, returning the best and median nanoseconds per operation across the rounds.
+     */
+    private static double[] Measure(Benchmark operation) throws IOException
+    {
+        return Measure(null, operation);
+    }
+
+    /**
+     * Times an operation after running some untimed setup before each one (such as rendering a frame to
+     * set up its rays), returning the best and median nanoseconds per operation across the rounds.
+     * Without setup, whole rounds are timed at once so the timer doesn't add to very short operations.
+     */
+    private static double[] Measure(Benchmark setup, Benchmark operation) throws IOException
+    {
+        //Warm up, so the JIT has compiled everything before timing.
+        long warmupEnd = System.nanoTime() + WarmupMs * 1_000_000L;
+        while (System.nanoTime() < warmupEnd)
+        {
+            if (setup != null) { setup.Run(); }
+            operation.Run();
+        }
+
+        //Time each round.
+        double[] rounds = new double[Rounds];
+        for (int r=0; r<Rounds; r++)
+        {
+            long elapsed = 0;
+            long operations = 0;
+            long roundStart = System.nanoTime();
+            long roundEnd = roundStart + RoundMs * 1_000_000L;
+            if (setup == null)
+            {
+                //Check the clock every batch of operations, rather than every operation.
+                while (System.nanoTime() < roundEnd)
+                {
+                    for (int i=0; i<100; i++) { operation.Run(); }
+                    operations += 100;
+                }
+                elapsed = System.nanoTime() - roundStart;
+            }
+            else
+            {
+                while (System.nanoTime() < roundEnd)
+                {
+                    setup.Run();
+                    long start = System.nanoTime();
+                    operation.Run();
+                    elapsed += System.nanoTime() - start;
+                    operations++;
+                }
+            }
+            rounds[r] = elapsed / (double)operations;
+        }
+
+        Arrays.sort(rounds);
+        return new double[] { rounds[0], rounds[Rounds / 2] };
+    }
+
+    /**
+     * Prints the result of a single benchmark.
+     */
+    private static void Report(String name, int resolution, int mapSize, double[] result)
+    {
+        System.out.printf("%-12s %-8s %-8s %14.1f %14.1f%n", name, resolution == 0 ? "-" : resolution, mapSize == 0 ? "-" : mapSize, result[0], result[1]);
+    }
+}
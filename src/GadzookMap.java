@@ -0,0 +1,263 @@
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Represents the grid of cells making up a raycast map.
+ * Each cell stores a one byte id into a side table of cell definitions, rather than a reference,
+ * and a packed bitset of which cells are solid is kept alongside for ray traversal.
+ * The grid and bitset live in buffers, so they can be read straight out of a memory mapped map file.
+ */
+public class GadzookMap {
+
+    /**
+     * The maximum number of distinct cell definitions a map can hold.
+     */
+    public static final int MaxDefinitions = 256;
+
+    //The size of the map, in cells.
+    private final int width;
+    private final int height;
+
+    //The definition id of every cell, row by row.
+    private final ByteBuffer cells;
+
+    //One bit per cell, row by row, set when the cell is solid.
+    private final LongBuffer solid;
+
+    //The cell definitions, indexed by id.
+    private final MapCell[] definitions = new MapCell[MaxDefinitions];
+    private int definitionCount = 0;
+
+    //Counts changes to the cells, so anything cached from them can tell when it's stale.
+    private volatile int revision = 0;
+
+    //The position (in cells) that the player starts at.
+    private float spawnX = 1.5f;
+    private float spawnY = 1.5f;
+
+    /**
+     * Creates an empty map of the given size, in cells.
+     */
+    public GadzookMap(int width_, int height_)
+    {
+        width = width_;
+        height = height_;
+        cells = ByteBuffer.allocate(width_ * height_);
+        solid = LongBuffer.allocate(getSolidLongs(width_, height_));
+
+        //Every cell starts as the empty definition, id zero.
+        Define(MapCell.Empty);
+    }
+
+    /**
+     * Creates a map from an array of rows of cells.
+     * All rows should be the same length.
+     */
+    public GadzookMap(MapCell[][] rows)
+    {
+        this(rows[0].length, rows.length);
+        for (int y=0; y<height; y++)
+        {
+            for (int x=0; x<width; x++)
+            {
+                setCell(x, y, rows[y][x]);
+            }
+        }
+    }
+
+    /**
+     * Creates a map over existing cell and solidity buffers, such as those mapped from a map file.
+     * The buffers are used directly rather than copied, if they are read only then so is the map.
+     * @param width_ The width of the map, in cells.
+     * @param height_ The height of the map, in cells.
+     * @param cells_ The definition id of every cell, row by row, starting at index zero.
+     * @param solid_ The solidity bitset of every cell, row by row, starting at index zero.
+     * @param definitions_ The cell definitions, indexed by id.
+     */
+    public GadzookMap(int width_, int height_, ByteBuffer cells_, LongBuffer solid_, MapCell[] definitions_)
+    {
+        width = width_;
+        height = height_;
+        cells = cells_;
+        solid = solid_;
+        definitionCount = definitions_.length;
+        System.arraycopy(definitions_, 0, definitions, 0, definitions_.length);
+    }
+
+    /**
+     * Creates a map with no cell storage of its own, for subclasses which store their cells elsewhere.
+     * Subclasses must override every method which reads or writes cells.
+     * @param width_ The width of the map, in cells.
+     * @param height_ The height of the map, in cells.
+     * @param definitions_ The cell definitions, indexed by id.
+     */
+    protected GadzookMap(int width_, int height_, MapCell[] definitions_)
+    {
+        this(width_, height_, null, null, definitions_);
+    }
+
+    /**
+     * Called every tick with the player's position (in cells).
+     * Does nothing for maps which are fully resident, streamed maps use it to load the cells around the player.
+     */
+    public void Update(float x, float y) { }
+
+    /**
+     * Returns the number of longs needed for the solidity bitset of a map of the given size.
+     */
+    public static int getSolidLongs(int width, int height)
+    {
+        return (int)(((long)width * height + 63) / 64);
+    }
+
+    /**
+     * Adds a cell to the definition table if it isn't already there, and returns its id.
+     */
+    public int Define(MapCell cell)
+    {
+        //Is it already defined?
+        for (int i=0; i<definitionCount; i++)
+        {
+            if (definitions[i] == cell) { return i; }
+        }
+
+        //No, add it.
+        if (definitionCount >= MaxDefinitions)
+        {
+            throw new IllegalStateException("A map cannot have more than " + MaxDefinitions + " cell definitions.");
+        }
+        definitions[definitionCount] = cell;
+        return definitionCount++;
+    }
+
+    /**
+     * Sets the cell at the given position, defining it if necessary.
+     */
+    public void setCell(int x, int y, MapCell cell)
+    {
+        setCellId(x, y, Define(cell));
+    }
+
+    /**
+     * Sets the cell at the given position to an existing definition id.
+     */
+    public void setCellId(int x, int y, int id)
+    {
+        int index = y * width + x;
+        cells.put(index, (byte)id);
+
+        //Update the solid bit to match.
+        long bits = solid.get(index >>> 6);
+        if (isSolidType(definitions[id].getType())) { bits |= 1L << index; }
+        else { bits &= ~(1L << index); }
+        solid.put(index >>> 6, bits);
+        MarkChanged();
+    }
+
+    /**
+     * Marks the cells as changed, so anything cached from them is rebuilt.
+     * Only one thread may change a map at a time.
+     */
+    protected void MarkChanged()
+    {
+        revision++;
+    }
+
+    /**
+     * Returns a count that changes whenever any cell of the map does.
+     */
+    public int getRevision() { return revision; }
+
+    /**
+     * Returns the definition id of the cell at the given position.
+     */
+    public int getCellId(int x, int y)
+    {
+        return cells.get(y * width + x) & 0xFF;
+    }
+
+    /**
+     * Returns the cell at the given position.
+     */
+    public MapCell getCell(int x, int y)
+    {
+        return definitions[getCellId(x, y)];
+    }
+
+    /**
+     * Returns the cell definition with the given id.
+     */
+    public MapCell getDefinition(int id)
+    {
+        return definitions[id];
+    }
+
+    /**
+     * Returns the number of cell definitions in this map.
+     */
+    public int getDefinitionCount() { return definitionCount; }
+
+    /**
+     * Returns whether the cell at the given position blocks rays and movement.
+     */
+    public boolean isSolid(int x, int y)
+    {
+        int index = y * width + x;
+        return (solid.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns whether the given position is inside the map.
+     */
+    public boolean isInBounds(int x, int y)
+    {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Returns whether cells of the given type block rays and movement.
+     */
+    public static boolean isSolidType(MapCellType type)
+    {
+        return type != MapCellType.Empty;
+    }
+
+    /**
+     * Sets the position (in cells) that the player starts at.
+     */
+    public void setSpawn(float x, float y)
+    {
+        spawnX = x;
+        spawnY = y;
+    }
+
+    /**
+     * Returns the X position (in cells) that the player starts at.
+     */
+    public float getSpawnX() { return spawnX; }
+
+    /**
+     * Returns the Y position (in cells) that the player starts at.
+     */
+    public float getSpawnY() { return spawnY; }
+
+    /**
+     * Returns the buffer holding the definition id of every cell, row by row.
+     */
+    public ByteBuffer getCellBuffer() { return cells; }
+
+    /**
+     * Returns the buffer holding the solidity bitset of every cell, row by row.
+     */
+    public LongBuffer getSolidBuffer() { return solid; }
+
+    /**
+     * Returns the width of the map, in cells.
+     */
+    public int getWidth() { return width; }
+
+    /**
+     * Returns the height of the map, in cells.
+     */
+    public int getHeight() { return height; }
+}
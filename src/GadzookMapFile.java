@@ -0,0 +1,439 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes Gadzooks binary map files.
+ *
+ * A map file is laid out as:
+ * <ul>
+ *     <li>The magic number "GZMP", then the format version, width and height (ints).</li>
+ *     <li>The spawn position in cells (floats).</li>
+ *     <li>The number of cell definitions (int), then for each definition its cell type ordinal (byte)
+ *     and texture path (short length, then UTF-8 bytes, zero length for no texture).</li>
+ *     <li>The definition id of every cell row by row (one byte each), starting on an 8 byte boundary.</li>
+ *     <li>The solidity bitset of every cell row by row (longs), starting on an 8 byte boundary.</li>
+ * </ul>
+ * All values are big endian.
+ *
+ * A chunked map file, used for maps streamed with Stream(), is laid out the same way except that it starts
+ * with the magic number "GZMC", has the chunk size (int) after the spawn position, and has no solidity bitset.
+ * The cells are stored chunk by chunk (row by row within each chunk) rather than row by row across the whole map,
+ * with chunks at the edges padded out to full size.
+ */
+public class GadzookMapFile {
+
+    //The magic number at the start of every map file, "GZMP".
+    private static final int Magic = 0x475A4D50;
+
+    //The magic number at the start of every chunked map file, "GZMC".
+    private static final int ChunkedMagic = 0x475A4D43;
+
+    //The memory budget used for chunked maps opened with Load(), in bytes.
+    private static final long DefaultStreamBudget = 64L * 1024 * 1024;
+
+    //The current version of the map format.
+    private static final int Version = 1;
+
+    //The largest a chunked map file header can be, in bytes.
+    private static final int MaxHeaderSize = 1024 * 1024;
+
+    //The largest chunk a chunked map file can have along each side, in cells.
+    private static final int MaxChunkSize = 4096;
+
+    /**
+     * Writes a map file's contents to an open channel.
+     */
+    private interface Writer
+    {
+        void Write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Loads a map file by memory mapping it.
+     * The cells and solidity bitset are read straight out of the mapped file rather than being copied
+     * onto the heap, so even very large maps open instantly. The returned map is read only.
+     * Chunked map files are opened with Stream() instead, using a default memory budget.
+     * Corrupt or truncated files throw an IOException.
+     * @param filePath The map file to load.
+     */
+    public static GadzookMap Load(String filePath) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            //Map the whole file, the mapping stays valid after the channel is closed.
+            if (channel.size() > Integer.MAX_VALUE) { throw new IOException("Map file '" + filePath + "' is too large to load, save it chunked and stream it instead."); }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            //Read the header.
+            if (buffer.remaining() < Integer.BYTES) { throw Corrupt(filePath); }
+            int magic = buffer.getInt();
+            if (magic == ChunkedMagic) { return Stream(filePath, DefaultStreamBudget); }
+            if (magic != Magic) { throw new IOException("'" + filePath + "' is not a Gadzooks map file."); }
+            try
+            {
+                ReadVersion(buffer, filePath);
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                float spawnX = buffer.getFloat();
+                float spawnY = buffer.getFloat();
+                if (width <= 0 || height <= 0) { throw Corrupt(filePath); }
+
+                //Read the cell definitions.
+                MapCell[] definitions = ReadDefinitions(buffer, filePath);
+
+                //Work out where the cells and solidity bitset are, in longs so huge dimensions can't overflow.
+                long cellCount = (long)width * height;
+                if (cellCount > buffer.limit()) { throw new IOException("Map file '" + filePath + "' is truncated."); }
+                long cellsStart = Align(buffer.position());
+                long solidStart = Align(cellsStart + cellCount);
+                long solidBytes = (long)GadzookMap.getSolidLongs(width, height) * Long.BYTES;
+                if (solidStart + solidBytes > buffer.limit()) { throw new IOException("Map file '" + filePath + "' is truncated."); }
+
+                //Slice them out, without copying.
+                ByteBuffer cells = buffer.slice((int)cellsStart, (int)cellCount);
+                ByteBuffer solid = buffer.slice((int)solidStart, (int)solidBytes);
+                if (!AreCellsValid(cells, 0, (int)cellCount, definitions.length)) { throw Corrupt(filePath); }
+
+                GadzookMap map = new GadzookMap(width, height, cells, solid.asLongBuffer(), definitions);
+                map.setSpawn(spawnX, spawnY);
+                return map;
+            }
+            catch (BufferUnderflowException e) { throw Corrupt(filePath); }
+        }
+    }
+
+    /**
+     * Saves a map to a map file, which can later be loaded with Load().
+     * Cells without a texture, or with a texture not loaded from a file, are saved without one.
+     * The map is written to a temporary file first and then moved into place, so a map loaded from the same file keeps working.
+     * @param map The map to save, which must have all of its cells in memory (so not a StreamedMap).
+     * @param filePath The file to save to.
+     */
+    public static void Save(GadzookMap map, String filePath) throws IOException
+    {
+        CheckSaveable(map);
+        WriteThenReplace(filePath, channel ->
+        {
+            //Encode the definitions first, so we know how big the header is.
+            byte[][] paths = new byte[map.getDefinitionCount()][];
+            int headerSize = 7 * Integer.BYTES;
+            headerSize += EncodeDefinitions(map, paths);
+
+            //Work out where each section starts.
+            int cellCount = map.getWidth() * map.getHeight();
+            int cellsStart = Align(headerSize);
+            int solidStart = Align(cellsStart + cellCount);
+            long fileSize = solidStart + (long)GadzookMap.getSolidLongs(map.getWidth(), map.getHeight()) * Long.BYTES;
+
+            //Map the output file, and write every section into it.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            buffer.putInt(Magic);
+            buffer.putInt(Version);
+            buffer.putInt(map.getWidth());
+            buffer.putInt(map.getHeight());
+            buffer.putFloat(map.getSpawnX());
+            buffer.putFloat(map.getSpawnY());
+            WriteDefinitions(buffer, map, paths);
+            ByteBuffer cells = map.getCellBuffer().duplicate();
+            cells.clear().limit(cellCount);
+            buffer.slice(cellsStart, cellCount).put(cells);
+            for (int i=0; i<GadzookMap.getSolidLongs(map.getWidth(), map.getHeight()); i++)
+            {
+                buffer.putLong(solidStart + i * Long.BYTES, map.getSolidBuffer().get(i));
+            }
+            buffer.force();
+        });
+    }
+
+    /**
+     * Writes a map file next to where it's going, then moves it over whatever is there.
+     * Writing straight over the file would truncate it under any map still reading from it.
+     */
+    private static void WriteThenReplace(String filePath, Writer writer) throws IOException
+    {
+        Path target = Path.of(filePath).toAbsolutePath();
+        Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try
+        {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                writer.Write(channel);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally { Files.deleteIfExists(temporary); }
+    }
+
+    /**
+     * Opens a chunked map file for streaming.
+     * Only the header is read up front, chunks are then loaded in the background around the player
+     * and evicted once more than the memory budget's worth of chunks are resident.
+     * The chunks around the spawn point are loaded before returning.
+     * @param filePath The chunked map file to open.
+     * @param memoryBudget The most bytes of chunk cells to keep resident at once.
+     */
+    public static StreamedMap Stream(String filePath, long memoryBudget) throws IOException
+    {
+        FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ);
+        try
+        {
+            //Map just enough of the file to read the header, it's small next to the chunks.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MaxHeaderSize));
+            int width, height, chunkSize;
+            float spawnX, spawnY;
+            MapCell[] definitions;
+            try
+            {
+                if (buffer.getInt() != ChunkedMagic) { throw new IOException("'" + filePath + "' is not a chunked Gadzooks map file."); }
+                ReadVersion(buffer, filePath);
+                width = buffer.getInt();
+                height = buffer.getInt();
+                spawnX = buffer.getFloat();
+                spawnY = buffer.getFloat();
+                chunkSize = buffer.getInt();
+                definitions = ReadDefinitions(buffer, filePath);
+            }
+            catch (BufferUnderflowException e) { throw Corrupt(filePath); }
+
+            //Chunks past the end of the file are left to the loader to report, but the layout itself has to make sense.
+            if (width <= 0 || height <= 0 || chunkSize <= 0 || chunkSize > MaxChunkSize || Integer.bitCount(chunkSize) != 1) { throw Corrupt(filePath); }
+            if (((long)width + chunkSize - 1) / chunkSize * (((long)height + chunkSize - 1) / chunkSize) > Integer.MAX_VALUE) { throw Corrupt(filePath); }
+
+            //Hand the file over to the streamed map, and load in the area around the spawn.
+            StreamedMap map = new StreamedMap(width, height, definitions, channel, Align(buffer.position()), chunkSize, memoryBudget);
+            map.setSpawn(spawnX, spawnY);
+            map.Prefetch(spawnX, spawnY);
+            return map;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Saves a map to a chunked map file, which can later be opened with Stream().
+     * @param map The map to save, which must have all of its cells in memory (so not a StreamedMap).
+     * @param filePath The file to save to.
+     * @param chunkSize The size of a chunk along each side, must be a power of two no more than 4096.
+     */
+    public static void SaveChunked(GadzookMap map, String filePath, int chunkSize) throws IOException
+    {
+        CheckSaveable(map);
+        if (Integer.bitCount(chunkSize) != 1 || chunkSize > MaxChunkSize) { throw new IllegalArgumentException("Chunk size must be a power of two no more than " + MaxChunkSize + "."); }
+
+        WriteThenReplace(filePath, channel ->
+        {
+            //Encode the definitions first, so we know how big the header is.
+            byte[][] paths = new byte[map.getDefinitionCount()][];
+            int headerSize = 8 * Integer.BYTES + EncodeDefinitions(map, paths);
+            if (headerSize > MaxHeaderSize) { throw new IOException("Map header is too large to save."); }
+
+            //Work out where the chunks start.
+            int chunksX = (map.getWidth() + chunkSize - 1) / chunkSize;
+            int chunksY = (map.getHeight() + chunkSize - 1) / chunkSize;
+            long chunksStart = Align(headerSize);
+            long fileSize = chunksStart + (long)chunksX * chunksY * chunkSize * chunkSize;
+
+            //Write the header.
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, chunksStart);
+            header.putInt(ChunkedMagic);
+            header.putInt(Version);
+            header.putInt(map.getWidth());
+            header.putInt(map.getHeight());
+            header.putFloat(map.getSpawnX());
+            header.putFloat(map.getSpawnY());
+            header.putInt(chunkSize);
+            WriteDefinitions(header, map, paths);
+            header.force();
+
+            //Write each chunk in turn, cells outside the map are left empty.
+            ByteBuffer chunk = ByteBuffer.allocate(chunkSize * chunkSize);
+            for (int cy=0; cy<chunksY; cy++)
+            {
+                for (int cx=0; cx<chunksX; cx++)
+                {
+                    chunk.clear();
+                    for (int y=cy*chunkSize; y<(cy+1)*chunkSize; y++)
+                    {
+                        for (int x=cx*chunkSize; x<(cx+1)*chunkSize; x++)
+                        {
+                            chunk.put(map.isInBounds(x, y) ? (byte)map.getCellId(x, y) : 0);
+                        }
+                    }
+                    chunk.flip();
+                    long position = chunksStart + ((long)cy * chunksX + cx) * chunkSize * chunkSize;
+                    while (chunk.hasRemaining()) { channel.write(chunk, position + chunk.position()); }
+                }
+            }
+            channel.truncate(fileSize);
+        });
+    }
+
+    /**
+     * Throws if a map doesn't have all of its cells in memory, such as a StreamedMap, which only has the chunks around the player.
+     */
+    private static void CheckSaveable(GadzookMap map)
+    {
+        if (map.getCellBuffer() == null) { throw new IllegalArgumentException("Only maps with all of their cells in memory can be saved, not streamed maps."); }
+    }
+
+    /**
+     * Returns whether every cell in part of a buffer refers to one of the given number of definitions.
+     * @param cells The cells to check, one byte each.
+     * @param from The index of the first cell to check.
+     * @param to The index to stop checking at (exclusive).
+     * @param definitionCount The number of definitions cells can refer to.
+     */
+    static boolean AreCellsValid(ByteBuffer cells, int from, int to, int definitionCount)
+    {
+        for (int i=from; i<to; i++)
+        {
+            if ((cells.get(i) & 0xFF) >= definitionCount) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * Reads and checks the format version from a map file header.
+     */
+    private static void ReadVersion(ByteBuffer buffer, String filePath) throws IOException
+    {
+        int version = buffer.getInt();
+        if (version != Version) { throw new IOException("Unsupported map file version " + version + " in '" + filePath + "'."); }
+    }
+
+    /**
+     * Reads the cell definitions from a map file header, loading their textures.
+     */
+    private static MapCell[] ReadDefinitions(ByteBuffer buffer, String filePath) throws IOException
+    {
+        int definitionCount = buffer.getInt();
+        if (definitionCount < 1 || definitionCount > GadzookMap.MaxDefinitions) { throw new IOException("Invalid definition count in '" + filePath + "'."); }
+        MapCell[] definitions = new MapCell[definitionCount];
+        for (int i=0; i<definitionCount; i++)
+        {
+            int ordinal = buffer.get() & 0xFF;
+            if (ordinal >= MapCellType.values().length) { throw Corrupt(filePath); }
+            MapCellType type = MapCellType.values()[ordinal];
+            String path = ReadPath(buffer);
+
+            //Load textures through the shared registry, so textures used by several definitions or maps are only read once.
+            int textureId;
+            try { textureId = path.isEmpty() ? TextureRegistry.NoTexture : TextureRegistry.getShared().Load(path); }
+            catch (InvalidPathException e) { throw Corrupt(filePath); }
+            definitions[i] = new MapCell(type, textureId);
+        }
+        return definitions;
+    }
+
+    /**
+     * Creates the exception thrown for a map file whose contents don't make sense.
+     */
+    private static IOException Corrupt(String filePath)
+    {
+        return new IOException("Map file '" + filePath + "' is corrupt.");
+    }
+
+    /**
+     * Reads a definition's texture path from a map file header, empty for no texture.
+     */
+    private static String ReadPath(ByteBuffer buffer)
+    {
+        byte[] path = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(path);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the texture paths used by a map file (of either kind), without loading the map or its textures.
+     * Useful for loading the textures ahead of time, such as in parallel with an AssetLoader.
+     * @param filePath The map file to read.
+     */
+    public static List<String> ReadTexturePaths(String filePath) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Path.of(filePath), StandardOpenOption.READ))
+        {
+            //Skip over the header up to the definitions, the chunked header has the chunk size in the way.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MaxHeaderSize));
+            try
+            {
+                int magic = buffer.getInt();
+                if (magic != Magic && magic != ChunkedMagic) { throw new IOException("'" + filePath + "' is not a Gadzooks map file."); }
+                ReadVersion(buffer, filePath);
+                buffer.position(buffer.position() + 2 * Integer.BYTES + 2 * Float.BYTES + (magic == ChunkedMagic ? Integer.BYTES : 0));
+
+                int definitionCount = buffer.getInt();
+                if (definitionCount < 1 || definitionCount > GadzookMap.MaxDefinitions) { throw new IOException("Invalid definition count in '" + filePath + "'."); }
+                List<String> paths = new ArrayList<>();
+                for (int i=0; i<definitionCount; i++)
+                {
+                    buffer.get();
+                    String path = ReadPath(buffer);
+                    if (!path.isEmpty() && !paths.contains(path)) { paths.add(path); }
+                }
+                return paths;
+            }
+            catch (BufferUnderflowException | IllegalArgumentException e) { throw Corrupt(filePath); }
+        }
+    }
+
+    /**
+     * Encodes the texture path of every definition in a map, and returns the number of bytes they take in the header.
+     * Cells without a texture, or with a texture not loaded from a file, are saved without one.
+     */
+    private static int EncodeDefinitions(GadzookMap map, byte[][] paths)
+    {
+        int size = 0;
+        for (int i=0; i<paths.length; i++)
+        {
+            GadzookTexture texture = map.getDefinition(i).getTexture();
+            String path = texture == null || texture.getFilePath() == null ? "" : texture.getFilePath();
+            paths[i] = path.getBytes(StandardCharsets.UTF_8);
+            size += 1 + Short.BYTES + paths[i].length;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the definition count and every definition of a map to a map file header.
+     */
+    private static void WriteDefinitions(ByteBuffer buffer, GadzookMap map, byte[][] paths)
+    {
+        buffer.putInt(paths.length);
+        for (int i=0; i<paths.length; i++)
+        {
+            buffer.put((byte)map.getDefinition(i).getType().ordinal());
+            buffer.putShort((short)paths[i].length);
+            buffer.put(paths[i]);
+        }
+    }
+
+    /**
+     * Rounds a file offset up to the next 8 byte boundary.
+     */
+    private static int Align(int offset)
+    {
+        return (offset + 7) & ~7;
+    }
+
+    /**
+     * Rounds a file offset up to the next 8 byte boundary.
+     */
+    private static long Align(long offset)
+    {
+        return (offset + 7) & ~7L;
+    }
+}
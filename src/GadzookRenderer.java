@@ -21,6 +21,26 @@ public abstract class GadzookRenderer {
      */
     public abstract void Draw(Graphics graphics, BufferedImage image);
 
+    /**
+     * Called before each frame, to add the regions of the image this renderer will change to the frame's damage.
+     * Only damaged regions are cleared, redrawn and copied to the screen, so a renderer that leaves some of
+     * the image the same from frame to frame should only add what changes. By default the whole image is damaged.
+     * @param damage The damage of the frame to add to.
+     * @param width The width of the image being drawn.
+     * @param height The height of the image being drawn.
+     */
+    public void AddDamage(DamageRegion damage, int width, int height)
+    {
+        damage.AddAll();
+    }
+
+    /**
+     * Returns whether this renderer draws into its own retained layer, which is kept between frames.
+     * Retained renderers are only drawn when they add damage, and then only within it,
+     * otherwise their layer is composited as it was.
+     */
+    public boolean isRetained() { return false; }
+
     /**
      * Returns whether this renderer is the same instance as the one provided.
      */
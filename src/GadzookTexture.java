@@ -13,43 +13,218 @@ import java.util.Map;
  */
 public class GadzookTexture extends GameObject {
 
-    //The texture's pixels.
-    private Color[] texture;
+    //The pixels of every level of the mip chain, then the same again darkened for horizontal hits, as packed ARGB.
+    //The image's alpha is kept for sprites, which skip transparent texels; walls and floors draw every texel opaque.
+    //Each level is a block of rows, each level half the size of the last (down to a pixel), starting with the texture itself.
+    //Small textures are packed into a shared atlas page by the TextureRegistry, so the data may hold other textures too.
+    private int[] data;
+
+    //Where each level and its shaded variant start in the data, and the size of each level.
+    private int[] offsets;
+    private int[] shadedOffsets;
+    private int[] mipWidths;
+    private int[] mipHeights;
+
+    //Where the full size texture and its shaded variant start in the data.
+    private int baseOffset;
+    private int shadedBaseOffset;
 
     //The size of a texture.
     private Vector2 size;
 
+    //The file the texture was loaded from.
+    private String filePath;
+
     /**
      * Instantiates a new instance of the texture, based on a file path.
-     * Also instantiates a number of animations.
+     * Prefer loading textures through the TextureRegistry, which only reads each file once.
      */
     public GadzookTexture(String filePath) throws IOException
     {
-        //Read in the image.
-        BufferedImage image = ImageIO.read(new File(filePath));
-
-        //Create the texture array.
-        texture = new Color[image.getWidth() * image.getHeight()];
+        this(ImageIO.read(new File(filePath)), filePath);
+    }
 
-        //Set size.
+    /**
+     * Instantiates a new instance of the texture from an image already read in.
+     * @param image The image to copy the pixels of.
+     * @param filePath_ The file the image was read from, or null if it wasn't.
+     */
+    public GadzookTexture(BufferedImage image, String filePath_)
+    {
+        filePath = filePath_;
         size = new Vector2(image.getWidth(), image.getHeight());
 
-        //Read image pixel by pixel into the texture array.
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth(); j++) {
-                texture[i * image.getWidth() + j] = new Color(image.getRGB(j, i));
+        //Lay out the levels, halving until both sides are a pixel, with the shaded levels after the rest.
+        int levels = 1;
+        for (int w=size.X, h=size.Y; w > 1 || h > 1; w = Math.max(1, w / 2), h = Math.max(1, h / 2)) { levels++; }
+        offsets = new int[levels];
+        shadedOffsets = new int[levels];
+        mipWidths = new int[levels];
+        mipHeights = new int[levels];
+        int total = 0;
+        for (int level=0, w=size.X, h=size.Y; level<levels; level++, w = Math.max(1, w / 2), h = Math.max(1, h / 2))
+        {
+            offsets[level] = total;
+            mipWidths[level] = w;
+            mipHeights[level] = h;
+            total += w * h;
+        }
+        for (int level=0; level<levels; level++) { shadedOffsets[level] = offsets[level] + total; }
+        data = new int[total * 2];
+
+        //Read the image into the first level in one go, then filter the rest down from it.
+        image.getRGB(0, 0, size.X, size.Y, data, 0, size.X);
+        BuildMipChain();
+
+        //Precompute the shaded variant of every pixel.
+        for (int i=0; i<total; i++) { data[total + i] = darken(data[i]); }
+        baseOffset = offsets[0];
+        shadedBaseOffset = shadedOffsets[0];
+    }
+
+    /**
+     * Box filters each level of the mip chain down from the last.
+     * Odd sized levels clamp at their edge, so no texture is too small or oddly shaped to have a chain.
+     */
+    private void BuildMipChain()
+    {
+        for (int level=1; level<offsets.length; level++)
+        {
+            int source = offsets[level - 1];
+            int sourceWidth = mipWidths[level - 1], sourceHeight = mipHeights[level - 1];
+            int target = offsets[level];
+            int width = mipWidths[level], height = mipHeights[level];
+            for (int y=0; y<height; y++)
+            {
+                int row0 = source + Math.min(y * 2, sourceHeight - 1) * sourceWidth;
+                int row1 = source + Math.min(y * 2 + 1, sourceHeight - 1) * sourceWidth;
+                for (int x=0; x<width; x++)
+                {
+                    int x0 = Math.min(x * 2, sourceWidth - 1), x1 = Math.min(x * 2 + 1, sourceWidth - 1);
+                    data[target + y * width + x] = average(data[row0 + x0], data[row0 + x1], data[row1 + x0], data[row1 + x1]);
+                }
             }
         }
     }
 
+    /**
+     * Returns the number of ints the texture's levels take up.
+     */
+    int getFootprint() { return 2 * (shadedOffsets[0] - offsets[0]); }
+
+    /**
+     * Moves the texture's levels into an atlas page, starting at the given offset.
+     * Must be done before the texture is handed out, as readers don't synchronise with the move.
+     */
+    void PackInto(int[] page, int at)
+    {
+        int shift = at - offsets[0];
+        System.arraycopy(data, offsets[0], page, at, getFootprint());
+        for (int level=0; level<offsets.length; level++)
+        {
+            offsets[level] += shift;
+            shadedOffsets[level] += shift;
+        }
+        data = page;
+        baseOffset = offsets[0];
+        shadedBaseOffset = shadedOffsets[0];
+    }
+
+    /**
+     * Averages four packed ARGB colours, channel by channel.
+     */
+    private static int average(int a, int b, int c, int d)
+    {
+        int alpha = ((a >>> 24) + (b >>> 24) + (c >>> 24) + (d >>> 24) + 2) / 4;
+        int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) / 4;
+        int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) / 4;
+        int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) / 4;
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
     /**
      * Returns the colour of a specific pixel on the texture, provided a coordinate.
      */
     public Color getColour(int x, int y)
     {
-        return texture[y * size.X + x];
+        return new Color(data[baseOffset + y * size.X + x]);
+    }
+
+    /**
+     * Returns the packed ARGB colour of a specific pixel on the texture, provided a coordinate.
+     */
+    public int getPixel(int x, int y)
+    {
+        return data[baseOffset + y * size.X + x];
+    }
+
+    /**
+     * Returns the packed ARGB colour of a specific pixel on the shaded variant of the texture.
+     * This is the same colour Color.darker() would produce for the unshaded pixel.
+     */
+    public int getShadedPixel(int x, int y)
+    {
+        return data[shadedBaseOffset + y * size.X + x];
+    }
+
+    /**
+     * Returns the packed ARGB colour of a pixel on a level of the mip chain.
+     */
+    public int getPixel(int level, int x, int y)
+    {
+        return data[offsets[level] + y * mipWidths[level] + x];
+    }
+
+    /**
+     * Returns the packed ARGB colour of a pixel on the shaded variant of a level of the mip chain.
+     */
+    public int getShadedPixel(int level, int x, int y)
+    {
+        return data[shadedOffsets[level] + y * mipWidths[level] + x];
+    }
+
+    /**
+     * Returns the level of the mip chain to sample when drawing the texture's full height over the given number of pixels.
+     * That's the largest level still with at least a texel per pixel, so each pixel's texel stands in for those it skips.
+     */
+    public int getMipLevel(float drawnHeight)
+    {
+        int level = 0;
+        while (level < offsets.length - 1 && mipHeights[level + 1] >= drawnHeight) { level++; }
+        return level;
+    }
+
+    /**
+     * Returns the number of levels in the mip chain, including the texture itself.
+     */
+    public int getMipLevelCount() { return offsets.length; }
+
+    /**
+     * Returns the width of a level of the mip chain.
+     */
+    public int getWidth(int level) { return mipWidths[level]; }
+
+    /**
+     * Returns the height of a level of the mip chain.
+     */
+    public int getHeight(int level) { return mipHeights[level]; }
+
+    /**
+     * Darkens a packed ARGB colour, matching the result of Color.darker().
+     */
+    private static int darken(int argb)
+    {
+        int r = (int)(((argb >> 16) & 0xFF) * 0.7);
+        int g = (int)(((argb >> 8) & 0xFF) * 0.7);
+        int b = (int)((argb & 0xFF) * 0.7);
+        return (argb & 0xFF000000) | (r << 16) | (g << 8) | b;
     }
 
+    /**
+     * Returns the path of the file the texture was loaded from.
+     */
+    public String getFilePath() { return filePath; }
+
     /**
      * Returns the width of the texture.
      */
@@ -2,28 +2,54 @@ import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.IOException;
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 
 public class GadzooksScene extends GadzookRenderer {
 
     //The arena the scene is using.
     GameArena arena;
 
+    /**
+     * The file the default "missing texture" texture is loaded from.
+     */
+    public static final String DefaultTexturePath = "smallDefaultTexture.png";
+
     //The default "missing texture" texture.
-    GadzookTexture defaultTexture = new GadzookTexture("smallDefaultTexture.png");
+    GadzookTexture defaultTexture = TextureRegistry.getShared().LoadTexture(DefaultTexturePath);
+
+    //The textures of the floor and ceiling. Empty cells with a texture of their own use it for their floor instead.
+    //Set either to null to leave it as background.
+    GadzookTexture floorTexture = defaultTexture;
+    GadzookTexture ceilingTexture = defaultTexture;
 
     //The position of the player.
     Vector2f playerPos;
 
-    //The delta look and look angle of the player.
+    //The unit look direction and look angle of the player.
     Vector2f playerDelta = new Vector2f(0, 0);
     float playerAngle = 0;
 
-    //The size of the map.
-    Vector2 mapSize = new Vector2(8, 8);
+    //How fast the player moves (in units per second), and turns (in radians per second).
+    float moveSpeed = 120;
+    float turnSpeed = 3;
+
+    //The number of simulation ticks per second.
+    int tickRate = 60;
+
+    //The most ticks to catch up on at once after a hitch, before dropping time instead.
+    int maxCatchUpTicks = 5;
+
+    //The latest pose published by the simulation for the renderer.
+    volatile SceneSnapshot snapshot;
 
     //The size of each map square.
     int mapUnitSize = 64;
@@ -31,20 +57,96 @@ public class GadzooksScene extends GadzookRenderer {
     //The maximum ray depth per trace.
     int maxRayDepth = 32;
 
-    //The FOV of the "camera".
-    int fieldOfView = 90;
+    //The camera the scene is viewed through, with a 90 degree FOV and 240 column view resolution.
+    Camera camera = new Camera(90, 240, CameraProjection.Angular);
+
+    //Whether to draw the scene straight into the image's pixel buffer, rather than through Java2D.
+    boolean rasterDraw = true;
 
-    //The view resolution.
-    int viewResolution = 240;
+    //Whether walls are sampled from the mip level matching their drawn height, rather than always the full texture.
+    boolean mipmapping = true;
 
-    //How many units a player can be away from a wall before they can't move forward anymore.
+    //How many units a player can be away from a wall before they can't move forward anymore, the radius they collide with.
     int collisionGap = 20;
 
-    //The list of rays cast this frame.
-    ArrayList<Raycast> rays = new ArrayList<>();
+    //Moves the player through the map, sliding along walls.
+    GridCollider collider = new GridCollider(null, mapUnitSize);
+
+    //The entities moving around the world, ticked in batches along with the player.
+    EntityStore entities = new EntityStore(1024);
+
+    //The results of the rays cast this frame, one slot per column.
+    RayHitBuffer hits = new RayHitBuffer(0);
+
+    //The top left of the 3D view on the screen.
+    Vector2 viewStart = new Vector2(640, 0);
+
+    //The top down view of the map, drawn to the left of the 3D view at a pixel per world unit.
+    Minimap minimap = new Minimap(mapUnitSize);
+
+    //The workers used to render the view in parallel, null when rendering on the paint thread.
+    ColumnWorkers workers = null;
+
+    //The band renderer handed to the workers.
+    private final ColumnWorkers.Band renderBand = this::RenderColumns;
+
+    //The player pose captured at the start of this frame.
+    float frameX;
+    float frameY;
+    float frameAngle;
+
+    //The distance to the floor seen at each screen row below the horizon (and the ceiling at the mirrored row above it),
+    //and the image height it was built for.
+    private float[] rowDistance = new float[0];
+    private int rowDistanceHeight = -1;
+
+    //The floor texture of each map cell definition this frame, and whether they're all the same.
+    private final GadzookTexture[] floorById = new GadzookTexture[GadzookMap.MaxDefinitions];
+    private boolean uniformFloor;
+
+    //The billboard sprites standing in the world, bucketed by position. Null until the first sprite is added.
+    SpriteGrid sprites;
+
+    //The closest a sprite can be to the camera (in world units) and still be drawn.
+    float spriteNearPlane = 1;
 
-    //The map array.
-    MapCell[][] map = new MapCell[][] {
+    //The sprites found near the view this frame, and the depth, texture, size and left and right columns of each visible one.
+    private WorldSprite[] nearbySprites = new WorldSprite[64];
+    private float[] spriteDepth = new float[64];
+    private float[] spriteLeft = new float[64];
+    private float[] spriteRight = new float[64];
+    private float[] spriteSize = new float[64];
+    private GadzookTexture[] spriteTexture = new GadzookTexture[64];
+
+    //The visible sprites this frame, as their depth's bits above their index into the arrays above, sorted nearest first.
+    //Positive floats sort the same as their bits, so sorting these sorts by depth without any boxing.
+    private long[] visibleSprites = new long[64];
+    private int visibleSpriteCount = 0;
+
+    //Times the phases of each frame, null when not profiling.
+    FrameProfiler profiler;
+
+    //Shows the profiler's stats, toggled with F3.
+    ProfilerOverlay profilerOverlay;
+
+    //The input events of the current tick, drained from the arena's queue.
+    InputEventQueue.Batch input = new InputEventQueue.Batch();
+
+    //The keys as of the current tick, built up from the input events alone so the simulation only depends on them.
+    KeyStateTable keyStates = new KeyStateTable(KeyStateTable.DefaultCapacity);
+    KeyStateTable.Snapshot keys = keyStates.CreateSnapshot();
+
+    //The file to record each tick's input to while running, null to not record, and the recorder writing it.
+    String recordPath;
+    private InputRecorder recorder;
+
+    //The image being drawn to this frame, and its pixel buffer if it can be written directly.
+    BufferedImage frameImage;
+    int[] framePixels;
+    int frameStride;
+
+    //The map grid.
+    GadzookMap map = new GadzookMap(new MapCell[][] {
         new MapCell[] { MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall },
         new MapCell[] { MapCell.Wall, MapCell.Empty, MapCell.Wall, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Wall },
         new MapCell[] { MapCell.Wall, MapCell.Empty, MapCell.Wall, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Wall },
@@ -53,12 +155,24 @@ public class GadzooksScene extends GadzookRenderer {
         new MapCell[] { MapCell.Wall, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Wall, MapCell.Empty, MapCell.Wall },
         new MapCell[] { MapCell.Wall, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Empty, MapCell.Wall },
         new MapCell[] { MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall, MapCell.Wall },
-    };
+    });
 
     /**
      * Default constructor.
      */
-    public GadzooksScene() throws IOException { }
+    public GadzooksScene() throws IOException
+    {
+        //Start the player in the top left corridor of the default map.
+        map.setSpawn(100f / mapUnitSize, 100f / mapUnitSize);
+    }
+
+    /**
+     * Constructor for a scene using the given map, such as one loaded from a map file.
+     */
+    public GadzooksScene(GadzookMap map_) throws IOException
+    {
+        map = map_;
+    }
 
     /**
      * Runs the scene until exit.
@@ -69,57 +183,253 @@ public class GadzooksScene extends GadzookRenderer {
         arena = a;
         arena.addRenderer(this);
 
-        //Initialize the player position.
-        playerPos = new Vector2f(100, 100);
+        //Profile frames with the arena's profiler, with an overlay to show it.
+        profiler = arena.getProfiler();
+        profilerOverlay = new ProfilerOverlay(profiler);
+        arena.addRenderer(profilerOverlay);
+
+        //Initialize the player position at the map's spawn point.
+        playerPos = new Vector2f(map.getSpawnX() * mapUnitSize, map.getSpawnY() * mapUnitSize);
 
-        //Set the initial delta value.
+        //Set the initial delta value, and publish the starting pose.
         ChangeLookAngle(0);
+        PublishSnapshot(playerPos.X, playerPos.Y, playerAngle);
+
+        //Start recording the input, if asked to.
+        if (recordPath != null)
+        {
+            try { recorder = new InputRecorder(recordPath, tickRate, playerPos.X, playerPos.Y, playerAngle); }
+            catch (IOException e) { System.err.println("Failed to start recording input: " + e.getMessage()); }
+        }
+
+        //Run the simulation in fixed steps, however long each loop actually takes.
+        long tickNanos = 1_000_000_000L / tickRate;
+        float tickSeconds = 1f / tickRate;
+        long previousTime = System.nanoTime();
+        long accumulated = 0;
 
         //Keep window open until escape pressed.
         while (!arena.isKeyPressed(KeyEvent.VK_ESCAPE))
         {
-            //todo: game loop
+            //Add on the time since the last loop, dropping any backlog too big to catch up on.
+            long now = System.nanoTime();
+            accumulated = Math.min(accumulated + now - previousTime, tickNanos * maxCatchUpTicks);
+            previousTime = now;
 
-            //Detect player movement.
-            DoPlayerMovement();
+            //Run as many ticks as that time covers.
+            while (accumulated >= tickNanos)
+            {
+                Tick(tickSeconds);
+                accumulated -= tickNanos;
+            }
 
             //Pause for the refresh rate.
             arena.pause();
         }
+
+        StopRecording();
     }
 
     /**
-     * Detects player movement, and updates the position accordingly.
+     * Finishes recording the input, if it's being recorded.
      */
-    private void DoPlayerMovement()
+    private void StopRecording()
     {
-        //Change the viewing angle based on the A and D keys.
-        if (arena.isKeyPressed(KeyEvent.VK_D)) { ChangeLookAngle(0.05f); }
-        if (arena.isKeyPressed(KeyEvent.VK_A)) { ChangeLookAngle(-0.05f); }
+        if (recorder == null) { return; }
+        try { recorder.close(); }
+        catch (IOException e) { System.err.println("Failed to finish recording input: " + e.getMessage()); }
+        recorder = null;
+    }
+
+    /**
+     * Gathers the input since the last tick (recording it if asked to), then steps the simulation with it.
+     * @param delta The length of the step, in seconds.
+     */
+    private void Tick(float delta)
+    {
+        //Catch up on the input since the last tick, in the order it happened.
+        arena.getInputEvents().Drain(input);
+        if (recorder != null)
+        {
+            try { recorder.Record(input); }
+            catch (IOException e)
+            {
+                System.err.println("Failed to record input: " + e.getMessage());
+                StopRecording();
+            }
+        }
+
+        Step(delta);
+    }
 
-        //Calculate the current collision gap.
-        Vector2 collisionOffset = new Vector2(collisionGap, collisionGap);
-        if (playerDelta.X < 0) { collisionOffset.X = -collisionGap; }
-        if (playerDelta.Y < 0) { collisionOffset.Y = -collisionGap; }
+    /**
+     * Advances the simulation by a single fixed step using this tick's input events, and publishes the new pose for the renderer.
+     * The step depends only on the input events, so replaying them reproduces it exactly.
+     * @param delta The length of the step, in seconds.
+     */
+    private void Step(float delta)
+    {
+        //Remember the pose before the tick, to interpolate from.
+        float previousX = playerPos.X;
+        float previousY = playerPos.Y;
+        float previousAngle = playerAngle;
+
+        //Apply the input.
+        ApplyInput();
+
+        //Detect player movement.
+        DoPlayerMovement(delta);
+
+        //Let the map load in the area around the player.
+        map.Update(playerPos.X / mapUnitSize, playerPos.Y / mapUnitSize);
+
+        //Move and animate the entities, sliding them along the same walls as the player.
+        collider.setMap(map);
+        entities.setCollider(collider);
+        entities.Tick(delta);
+
+        //Hand the renderer both poses.
+        snapshot = new SceneSnapshot(previousX, previousY, previousAngle, playerPos.X, playerPos.Y, playerAngle, System.nanoTime(), (long)(delta * 1_000_000_000L));
+    }
 
-        //Calculate the point in front and behind the player for collision detection.
-        Vector2 playerGridPos = new Vector2((int)(playerPos.X / mapUnitSize), (int)(playerPos.Y / mapUnitSize));
-        Vector2 forwardCheckPos = new Vector2((int)((playerPos.X + collisionOffset.X) / mapUnitSize), (int)((playerPos.Y + collisionOffset.Y) / mapUnitSize));
-        Vector2 backwardCheckPos = new Vector2((int)((playerPos.X - collisionOffset.X) / mapUnitSize), (int)((playerPos.Y - collisionOffset.Y) / mapUnitSize));
+    /**
+     * Replays a recording made while running, headlessly and as fast as possible, rendering a frame into the image after every tick.
+     * Prints the distribution of frame times when done, and returns a CRC32 checksum of every frame's pixels,
+     * so both speed and output can be compared between builds.
+     * The scene must be on the same map the recording was made on.
+     * Streamed maps load their chunks synchronously during the replay, so the cells resident each tick are the same on every run.
+     * @param filePath The recording to replay.
+     * @param image The image to render into, which must be backed by a packed int buffer (such as TYPE_INT_ARGB).
+     */
+    public long[] Replay(String filePath, BufferedImage image) throws IOException
+    {
+        //Don't let the loader thread decide when chunks of a streamed map turn up.
+        if (map instanceof StreamedMap) { ((StreamedMap)map).setSynchronous(true); }
 
-        //Try and move the player forward/backward.
-        if (arena.isKeyPressed(KeyEvent.VK_W))
+        try (InputReplay replay = new InputReplay(filePath))
         {
-            //Can the player move in the X and Y directions forward?
-            if (map[playerGridPos.Y][forwardCheckPos.X].getType() == MapCellType.Empty) { playerPos.X += playerDelta.X; }
-            if (map[forwardCheckPos.Y][playerGridPos.X].getType() == MapCellType.Empty) { playerPos.Y += playerDelta.Y; }
+            //Start where the recording did.
+            tickRate = replay.getTickRate();
+            playerPos = new Vector2f(replay.getStartX(), replay.getStartY());
+            playerAngle = replay.getStartAngle();
+            ChangeLookAngle(0);
+
+            //The checksum is taken over the pixels as bytes, reusing one buffer for every frame.
+            int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+            ByteBuffer bytes = ByteBuffer.allocate(pixels.length * Integer.BYTES);
+            IntBuffer ints = bytes.asIntBuffer();
+            CRC32 crc = new CRC32();
+
+            long[] checksums = new long[1024];
+            long[] frameNanos = new long[1024];
+            int frames = 0;
+            float delta = 1f / tickRate;
+            while (replay.Next(input))
+            {
+                Step(delta);
+
+                //Render the tick's pose, and time it.
+                long start = System.nanoTime();
+                RenderFrame(image, playerPos.X, playerPos.Y, playerAngle);
+                long elapsed = System.nanoTime() - start;
+
+                ints.clear();
+                ints.put(pixels);
+                bytes.clear();
+                crc.reset();
+                crc.update(bytes);
+
+                if (frames == checksums.length)
+                {
+                    checksums = Arrays.copyOf(checksums, frames * 2);
+                    frameNanos = Arrays.copyOf(frameNanos, frames * 2);
+                }
+                checksums[frames] = crc.getValue();
+                frameNanos[frames] = elapsed;
+                frames++;
+            }
+
+            //Report the frame times, and a checksum of the whole run.
+            long[] sorted = Arrays.copyOf(frameNanos, frames);
+            Arrays.sort(sorted);
+            crc.reset();
+            for (int i=0; i<frames; i++)
+            {
+                bytes.clear();
+                bytes.putLong(checksums[i]).flip();
+                crc.update(bytes);
+            }
+            System.out.printf("Replayed %d frames: p50 %.3fms  p95 %.3fms  p99 %.3fms  max %.3fms  checksum %08x%n", frames,
+                    Percentile(sorted, 50) / 1e6, Percentile(sorted, 95) / 1e6, Percentile(sorted, 99) / 1e6, Percentile(sorted, 100) / 1e6, crc.getValue());
+            return Arrays.copyOf(checksums, frames);
         }
-        if (arena.isKeyPressed(KeyEvent.VK_S))
+        finally
+        {
+            if (map instanceof StreamedMap) { ((StreamedMap)map).setSynchronous(false); }
+        }
+    }
+
+    /**
+     * Returns the given percentile (0 to 100) of some sorted values, zero if there are none.
+     */
+    private static long Percentile(long[] sorted, double percentile)
+    {
+        if (sorted.length == 0) { return 0; }
+        int index = (int)Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Applies this tick's input events to the key states, and acts on the presses that aren't held down controls.
+     */
+    private void ApplyInput()
+    {
+        for (int i=0; i<input.getCount(); i++)
         {
-            //Can the player move in the X and Y directions backward?
-            if (map[playerGridPos.Y][backwardCheckPos.X].getType() == MapCellType.Empty) { playerPos.X -= playerDelta.X; }
-            if (map[backwardCheckPos.Y][playerGridPos.X].getType() == MapCellType.Empty) { playerPos.Y -= playerDelta.Y; }
+            int type = input.getType(i);
+            if (type == InputEventQueue.KeyPressed)
+            {
+                keyStates.Press(input.getCode(i));
+
+                //Toggle the profiler overlay when F3 is pressed.
+                if (input.getCode(i) == KeyEvent.VK_F3 && profilerOverlay != null) { profilerOverlay.Toggle(); }
+            }
+            else if (type == InputEventQueue.KeyReleased)
+            {
+                keyStates.Release(input.getCode(i));
+            }
         }
+        keys.Update();
+    }
+
+    /**
+     * Publishes a pose for the renderer that isn't moving, such as the starting pose.
+     */
+    private void PublishSnapshot(float x, float y, float angle)
+    {
+        snapshot = new SceneSnapshot(x, y, angle, x, y, angle, System.nanoTime(), 1);
+    }
+
+    /**
+     * Detects player movement, and updates the position accordingly.
+     * @param delta The time passed since the last movement, in seconds.
+     */
+    private void DoPlayerMovement(float delta)
+    {
+        //Change the viewing angle based on the A and D keys.
+        if (keys.isDown(KeyEvent.VK_D)) { ChangeLookAngle(turnSpeed * delta); }
+        if (keys.isDown(KeyEvent.VK_A)) { ChangeLookAngle(-turnSpeed * delta); }
+
+        //Move forward/backward with the W and S keys.
+        float direction = 0;
+        if (keys.isDown(KeyEvent.VK_W)) { direction += 1; }
+        if (keys.isDown(KeyEvent.VK_S)) { direction -= 1; }
+        if (direction == 0) { return; }
+
+        //Sweep the player along the step, sliding along any walls in the way.
+        float step = direction * moveSpeed * delta;
+        collider.setMap(map);
+        collider.Move(playerPos, playerDelta.X * step, playerDelta.Y * step, collisionGap);
     }
 
     /**
@@ -133,8 +443,70 @@ public class GadzooksScene extends GadzookRenderer {
         if (playerAngle > 2*Math.PI) { playerAngle -= 2*Math.PI; }
 
         //Adjust player look deltas.
-        playerDelta.X = (float)Math.cos(playerAngle) * 2;
-        playerDelta.Y = (float)Math.sin(playerAngle) * 2;
+        playerDelta.X = (float)Math.cos(playerAngle);
+        playerDelta.Y = (float)Math.sin(playerAngle);
+    }
+
+    /**
+     * Sets the number of threads the view is rendered on.
+     * With more than one, the view's columns are split into bands and rendered in parallel.
+     */
+    public void SetRenderThreads(int threads)
+    {
+        //Stop the old workers, if any.
+        if (workers != null)
+        {
+            workers.Close();
+            workers = null;
+        }
+
+        //Create a new set of workers, if rendering in parallel.
+        if (threads > 1)
+        {
+            workers = new ColumnWorkers(threads);
+        }
+    }
+
+    /**
+     * Renders a single frame into an image from the given pose, without needing an arena or a window.
+     * The image is cleared first, and the player is left at the given pose afterwards.
+     * @param image The image to render into, ideally backed by a packed int buffer (such as TYPE_INT_ARGB).
+     * @param x The X world position to render from.
+     * @param y The Y world position to render from.
+     * @param angle The world angle to render facing.
+     */
+    public void RenderFrame(BufferedImage image, float x, float y, float angle)
+    {
+        //Move the player to the pose, and show it without interpolating.
+        if (playerPos == null) { playerPos = new Vector2f(x, y); }
+        playerPos.X = x;
+        playerPos.Y = y;
+        playerAngle = angle;
+        PublishSnapshot(x, y, angle);
+
+        //Clear and draw the frame.
+        Graphics2D graphics = image.createGraphics();
+        try
+        {
+            graphics.clearRect(0, 0, image.getWidth(), image.getHeight());
+            Draw(graphics, image);
+        }
+        finally
+        {
+            graphics.dispose();
+        }
+    }
+
+    /**
+     * Adds the parts of the screen the scene redraws every frame: the 3D view, the minimap and the angle readout.
+     * The minimap's player and rays are clipped to it, so its view covers them.
+     */
+    @Override
+    public void AddDamage(DamageRegion damage, int width, int height)
+    {
+        damage.Add(viewStart.X, viewStart.Y, width - viewStart.X, height - viewStart.Y);
+        damage.Add(0, 0, minimap.getViewWidth(map, viewStart.X), minimap.getViewHeight(map, height));
+        damage.Add(0, 0, 160, 16);
     }
 
     /**
@@ -144,89 +516,255 @@ public class GadzooksScene extends GadzookRenderer {
     @Override
     public void Draw(Graphics graphics, BufferedImage image)
     {
-        //Cast rays.
-        CastRays();
-
-        //Draw player.
-        graphics.setColor(Color.CYAN);
-        graphics.fillRect((int)playerPos.X, (int)playerPos.Y, 8, 8);
-        graphics.drawLine((int)playerPos.X + 4, (int)playerPos.Y + 4, (int)(playerPos.X + playerDelta.X * 10), (int)(playerPos.Y + playerDelta.Y * 10));
+        //Capture the pose and pixel buffer for this frame.
+        BeginFrame(image);
 
-        //Draw walls.
-        graphics.setColor(Color.WHITE);
-        for (int i=0; i<mapSize.X; i++)
+        //Cast rays and draw the casted scene.
+        //Columns are independent, so when writing straight into the pixel buffer they can be split across the workers.
+        if (workers != null && framePixels != null)
         {
-            for (int j=0; j<mapSize.Y; j++)
-            {
-                if (map[j][i].getType() == MapCellType.Empty) { continue; }
-                graphics.fillRect(i * mapUnitSize + 4, j * mapUnitSize + 4, mapUnitSize - 4, mapUnitSize - 4);
-            }
+            workers.Run(camera.getResolution(), renderBand);
         }
+        else
+        {
+            long start = System.nanoTime();
+            CastRays(0, camera.getResolution());
+            if (profiler != null) { profiler.Record(FrameProfiler.Phase.RayCast, start); }
 
-        //Draw all rays.
-        graphics.setColor(Color.RED);
-        for (int i=0; i<rays.size(); i++) {
-            graphics.drawLine((int) playerPos.X + 4, (int) playerPos.Y + 4, (int) (rays.get(i).Destination.X), (int) (rays.get(i).Destination.Y));
+            start = System.nanoTime();
+            DrawScene(graphics, 0, camera.getResolution());
+            if (profiler != null) { profiler.Record(FrameProfiler.Phase.Walls, start); }
+
+            start = System.nanoTime();
+            DrawFloors(0, camera.getResolution());
+            if (profiler != null) { profiler.Record(FrameProfiler.Phase.Floors, start); }
+
+            start = System.nanoTime();
+            DrawSprites(0, camera.getResolution());
+            if (profiler != null) { profiler.Record(FrameProfiler.Phase.Sprites, start); }
         }
-        graphics.setColor(Color.GREEN);
-        //graphics.drawLine((int)playerPos.X + 4, (int)playerPos.Y + 4, (int)(horRay.X), (int)(horRay.Y));
+
+        //Draw the minimap, to the left of the 3D view.
+        long minimapStart = System.nanoTime();
+        minimap.Draw(graphics, map, viewStart.X, image.getHeight(), mapUnitSize, frameX, frameY, camera.getViewX(), camera.getViewY(), hits);
 
         //Draw current angle.
         graphics.setColor(Color.RED);
-        graphics.drawString(String.valueOf(playerAngle), 10, 10);
+        graphics.drawString(String.valueOf(frameAngle), 10, 10);
+        if (profiler != null) { profiler.Record(FrameProfiler.Phase.Minimap, minimapStart); }
+    }
+
+    /**
+     * Captures the player's pose and the image's pixel buffer at the start of a frame.
+     * Everything drawn this frame uses what's captured here, so the pose can't change mid-frame.
+     */
+    void BeginFrame(BufferedImage image)
+    {
+        //Capture the player's pose, interpolated between the last two ticks, so every column of this frame sees the same view.
+        //Without a published pose (when drawn outside of Run()), show the player where they stand.
+        SceneSnapshot state = snapshot;
+        if (state == null) { state = new SceneSnapshot(playerPos.X, playerPos.Y, playerAngle, playerPos.X, playerPos.Y, playerAngle, 0, 1); }
+        float alpha = state.getAlpha(System.nanoTime());
+        frameX = state.PreviousX + (state.X - state.PreviousX) * alpha;
+        frameY = state.PreviousY + (state.Y - state.PreviousY) * alpha;
+
+        //Interpolate the angle the short way round, and the direction alongside it so no trigonometry is needed.
+        float angleChange = state.Angle - state.PreviousAngle;
+        if (angleChange > Math.PI) { angleChange -= 2*Math.PI; }
+        if (angleChange < -Math.PI) { angleChange += 2*Math.PI; }
+        frameAngle = state.PreviousAngle + angleChange * alpha;
+        if (frameAngle < 0) { frameAngle += 2*Math.PI; }
+        if (frameAngle > 2*Math.PI) { frameAngle -= 2*Math.PI; }
+        camera.setView(frameAngle, state.PreviousDirX + (state.DirX - state.PreviousDirX) * alpha,
+                       state.PreviousDirY + (state.DirY - state.PreviousDirY) * alpha);
+
+        //Make sure there's a ray slot for every column.
+        hits.Resize(camera.getResolution());
+
+        //Get the raw pixel buffer of the image, if we can write to it directly.
+        frameImage = image;
+        framePixels = null;
+        frameStride = 0;
+        if (rasterDraw && image.getRaster().getDataBuffer() instanceof DataBufferInt && image.getSampleModel() instanceof SinglePixelPackedSampleModel)
+        {
+            framePixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+            frameStride = ((SinglePixelPackedSampleModel)image.getSampleModel()).getScanlineStride();
+        }
+
+        //Get the floor ready to draw.
+        UpdateFloorTables(image.getHeight());
 
-        //Draw the casted scene.
-        DrawScene(rays, graphics, image, new Vector2(640, 0));
+        //Find the sprites in view, before the columns are split up, as every band draws from the same list.
+        long start = System.nanoTime();
+        ProjectSprites();
+        if (profiler != null) { profiler.Record(FrameProfiler.Phase.Sprites, start); }
     }
 
     /**
-     * Draws the scene to the screen, given a list of rays, a graphics manager, and a starting point.
+     * Returns the entities moving around the world.
+     */
+    public EntityStore getEntities() { return entities; }
+
+    /**
+     * Adds a billboard sprite to the world.
      */
-    private void DrawScene(ArrayList<Raycast> rays, Graphics graphics, BufferedImage image, Vector2 start)
+    public void AddSprite(WorldSprite sprite)
     {
-        //Draw all columns.
-        int col = 0;
-        int pixelsPerRay = arena.getArenaWidth() / viewResolution;
-        Vector2 lastGridCell = null;
-        for (Raycast ray : rays)
+        //Size the buckets to a few map cells, so a query over the view only looks at a handful of them.
+        if (sprites == null) { sprites = new SpriteGrid(map.getWidth() * mapUnitSize, map.getHeight() * mapUnitSize, mapUnitSize * 4); }
+        sprites.Add(sprite);
+    }
+
+    /**
+     * Removes a billboard sprite from the world.
+     */
+    public void RemoveSprite(WorldSprite sprite)
+    {
+        if (sprites != null) { sprites.Remove(sprite); }
+    }
+
+    /**
+     * Moves a billboard sprite in the world to a new position, in world units.
+     */
+    public void MoveSprite(WorldSprite sprite, float x, float y)
+    {
+        if (sprites != null) { sprites.Move(sprite, x, y); }
+        else
         {
-            //Set up the texture for this ray first.
-            //Get the grid cell at the hit point, does it exist?
-            GadzookTexture texture = null;
-            Vector2 gridCell = new Vector2((int)(ray.Destination.X / mapUnitSize), (int)(ray.Destination.Y / mapUnitSize));
-            if (gridCell.X >= 0 && gridCell.Y >= 0 && gridCell.Y < mapSize.X && gridCell.Y < mapSize.Y && !gridCell.equals(lastGridCell))
+            sprite.x = x;
+            sprite.y = y;
+        }
+    }
+
+    /**
+     * Finds the sprites in view this frame, projects them onto the screen, and sorts them by depth.
+     * Only the grid buckets under the view (the triangle from the player out to the furthest rays can reach) are looked at,
+     * and sprites behind the camera or outside the field of view are culled before sorting.
+     */
+    private void ProjectSprites()
+    {
+        visibleSpriteCount = 0;
+        if (sprites == null || framePixels == null) { return; }
+
+        //Bound the view triangle, reaching out by half the biggest sprite to catch ones poking into it.
+        float far = maxRayDepth * mapUnitSize;
+        int last = camera.getResolution() - 1;
+        float leftX = frameX + camera.getRayX(0) * far, leftY = frameY + camera.getRayY(0) * far;
+        float rightX = frameX + camera.getRayX(last) * far, rightY = frameY + camera.getRayY(last) * far;
+        float reach = sprites.getMaxSpriteSize() / 2;
+        float minX = Math.min(frameX, Math.min(leftX, rightX)) - reach, maxX = Math.max(frameX, Math.max(leftX, rightX)) + reach;
+        float minY = Math.min(frameY, Math.min(leftY, rightY)) - reach, maxY = Math.max(frameY, Math.max(leftY, rightY)) + reach;
+
+        float viewX = camera.getViewX(), viewY = camera.getViewY();
+        int resolution = camera.getResolution();
+        synchronized (sprites)
+        {
+            nearbySprites = sprites.Query(minX, minY, maxX, maxY, nearbySprites);
+            if (spriteDepth.length < nearbySprites.length) { GrowSpriteArrays(nearbySprites.length); }
+
+            for (int i=0; i<nearbySprites.length && nearbySprites[i] != null; i++)
             {
-                //Get the cell, set the texture from that cell as the texture.
-                var spr = map[gridCell.Y][gridCell.X].getTexture();
-                if (spr != null)
-                {
-                    texture = spr;
-                }
-                lastGridCell = gridCell;
+                WorldSprite sprite = nearbySprites[i];
+                if (sprite.texture == null) { continue; }
+
+                //Find how far in front of the camera it is, and how far to the side along the camera plane.
+                float dx = sprite.x - frameX, dy = sprite.y - frameY;
+                float depth = dx * viewX + dy * viewY;
+                if (depth < spriteNearPlane || depth > far) { continue; }
+                float lateral = dy * viewX - dx * viewY;
+
+                //Find the columns its edges land on, culling it if they're both off the same side of the view.
+                float half = sprite.size / 2;
+                float left = camera.getColumn((lateral - half) / depth);
+                float right = camera.getColumn((lateral + half) / depth);
+                if (right <= 0 || left >= resolution) { continue; }
+
+                spriteDepth[i] = depth;
+                spriteLeft[i] = left;
+                spriteRight[i] = right;
+                spriteSize[i] = sprite.size;
+                spriteTexture[i] = sprite.texture;
+                visibleSprites[visibleSpriteCount++] = ((long)Float.floatToRawIntBits(depth) << 32) | i;
             }
+        }
+        Arrays.sort(visibleSprites, 0, visibleSpriteCount);
+    }
 
-            //If no texture was found, or invalid grid square, apply the "missing texture" texture.
+    /**
+     * Grows the per sprite arrays to hold at least the given number of sprites.
+     */
+    private void GrowSpriteArrays(int size)
+    {
+        spriteDepth = Arrays.copyOf(spriteDepth, size);
+        spriteLeft = Arrays.copyOf(spriteLeft, size);
+        spriteRight = Arrays.copyOf(spriteRight, size);
+        spriteSize = Arrays.copyOf(spriteSize, size);
+        spriteTexture = Arrays.copyOf(spriteTexture, size);
+        visibleSprites = Arrays.copyOf(visibleSprites, size);
+    }
+
+    /**
+     * Casts and draws a band of columns straight into the frame's pixel buffer.
+     * Safe to call from the column workers, as each band only touches its own rays and columns.
+     */
+    void RenderColumns(int from, int to)
+    {
+        //Each band's times add up, so these phases measure the work done across all the workers.
+        long start = System.nanoTime();
+        CastRays(from, to);
+        if (profiler != null) { profiler.Record(FrameProfiler.Phase.RayCast, start); }
+
+        start = System.nanoTime();
+        DrawScene(null, from, to);
+        if (profiler != null) { profiler.Record(FrameProfiler.Phase.Walls, start); }
+
+        start = System.nanoTime();
+        DrawFloors(from, to);
+        if (profiler != null) { profiler.Record(FrameProfiler.Phase.Floors, start); }
+
+        start = System.nanoTime();
+        DrawSprites(from, to);
+        if (profiler != null) { profiler.Record(FrameProfiler.Phase.Sprites, start); }
+    }
+
+    /**
+     * Draws a band of columns of the scene to the screen from this frame's rays.
+     * When raster drawing is enabled and the image is backed by an int buffer, columns are written
+     * straight into the image's pixels, otherwise they are drawn with the given graphics instance.
+     */
+    void DrawScene(Graphics graphics, int from, int to)
+    {
+        //Draw all columns.
+        int pixelsPerRay = frameImage.getWidth() / camera.getResolution();
+        int viewHeight = frameImage.getHeight();
+        for (int col=from; col<to; col++)
+        {
+            //Until we know otherwise, there's no wall in this column.
+            hits.wallTop[col] = viewHeight / 2;
+            hits.wallBottom[col] = viewHeight / 2;
+
+            //Skip rays that didn't hit anything.
+            if (!hits.isHit(col)) { continue; }
+            boolean verticalHit = hits.side[col] == RayHitBuffer.SideVertical;
+
+            //Get the texture of the cell that was hit.
+            //If no texture was found, apply the "missing texture" texture.
+            GadzookTexture texture = map.getCell(hits.cellX[col], hits.cellY[col]).getTexture();
             if (texture == null)
             {
                 texture = defaultTexture;
             }
 
-            //Calculate the difference between the ray angle and the player's view angle.
-            //This corrects the fisheye effect from a non-uniform diagonal ray.
-            float angleDiff = playerAngle - ray.Angle;
-            if (angleDiff < 0) { angleDiff += 2*Math.PI; }
-            if (angleDiff > 2*Math.PI) { angleDiff -= 2*Math.PI; }
-
-            //Calculate the corrected ray distance.
-            float fixedRayDistance = ray.Distance * (float)Math.cos(angleDiff);
+            //The ray distance is already perpendicular to the camera, so needs no fisheye correction.
+            float fixedRayDistance = hits.distance[col];
 
             //Calculate the height of the line on the projection, calculate texture mapping in Y.
-            float lineHeight = mapUnitSize * arena.getArenaHeight() / fixedRayDistance;
+            float lineHeight = mapUnitSize * viewHeight / fixedRayDistance;
             float originalLineHeight = lineHeight;
-            if (lineHeight > arena.getArenaHeight())
+            if (lineHeight > viewHeight)
             {
                 //Cap height at screen height.
-                lineHeight = arena.getArenaHeight();
+                lineHeight = viewHeight;
             }
             float cutHeightTop = (originalLineHeight - lineHeight) / 2f;
             if (cutHeightTop < 0) { cutHeightTop = 0; }
@@ -235,239 +773,380 @@ public class GadzooksScene extends GadzookRenderer {
             if (lineHeight < 1) { continue; }
 
             //Calculate the offset above the line to center it.
-            float lineOffset = arena.getArenaHeight() / 2f - (lineHeight / 2f);
+            float lineOffset = viewHeight / 2f - (lineHeight / 2f);
+
+            //Remember where the wall is, so the floor and ceiling can be drawn around it.
+            hits.wallTop[col] = (int)lineOffset;
+            hits.wallBottom[col] = (int)lineOffset + (int)Math.ceil(lineHeight);
+
+            //Sample from the mip level matching how tall the wall is drawn, so far walls don't alias or read more texture than they show.
+            int level = mipmapping ? texture.getMipLevel(originalLineHeight) : 0;
+
+            //Get the X position of the column on the texture, this is the same for every row.
+            int texX = Math.min((int)(hits.texU[col] * texture.getWidth(level)), texture.getWidth(level) - 1);
 
-            //Begin drawing the line.
-            float pixelY = 0;
-            for (int row=0; row<lineHeight; row++)
+            //Draw the column, either directly into the pixel buffer or through the graphics instance.
+            if (framePixels != null)
             {
-                //Get the position of the pixel on the texture to use.
-                float texSideCoordinate = ray.Destination.X;
-                if (ray.IsVerticalHit) { texSideCoordinate = ray.Destination.Y; }
-                Vector2 texPixel = new Vector2((int)(texSideCoordinate * (texture.getWidth() / (float)mapUnitSize) % texture.getWidth()), (int)(((cutHeightTop + row) / originalLineHeight) * texture.getHeight()));
-
-                //Flip the texture as necessary to render on this wall.
-                //Flip for horizontal hits.
-                if (ray.Angle < Math.PI && !ray.IsVerticalHit)
+                FillColumn(framePixels, frameStride, frameImage.getWidth(), frameImage.getHeight(), viewStart.X + col * pixelsPerRay, (int)(viewStart.Y + lineOffset),
+                           pixelsPerRay, lineHeight, texture, level, texX, cutHeightTop, originalLineHeight, !verticalHit);
+            }
+            else
+            {
+                for (int row=0; row<lineHeight; row++)
                 {
-                    texPixel.X = texture.getWidth() - 1 - texPixel.X;
+                    //Get the colour of the pixel on the texture to use, darkened for horizontal hits.
+                    int texY = (int)(((cutHeightTop + row) / originalLineHeight) * texture.getHeight(level));
+                    int pixelColour = verticalHit ? texture.getPixel(level, texX, texY) : texture.getShadedPixel(level, texX, texY);
+
+                    //Draw onto the screen.
+                    graphics.setColor(new Color(pixelColour));
+                    graphics.drawRect(viewStart.X + col * pixelsPerRay, (int)(viewStart.Y + lineOffset + row), pixelsPerRay, 1);
                 }
+            }
+        }
+    }
 
-                //Flip for vertical hits.
-                if (ray.Angle < 3*Math.PI/2 && ray.Angle > Math.PI/2 && ray.IsVerticalHit)
+    /**
+     * Draws the floor and ceiling around the walls of a band of columns, straight into the pixel buffer.
+     * Works a screen row at a time: every pixel on a row sees the floor at the same distance (from the row distance
+     * table), so its position on the map is just the player's position plus that far along the column's ray,
+     * which steps linearly with the column's offset along the camera plane.
+     * The ceiling is drawn shaded at the mirrored row above the horizon, which sees it at the same distance.
+     * Only drawn when writing straight into the pixel buffer, and must be called after the walls.
+     */
+    void DrawFloors(int from, int to)
+    {
+        if (framePixels == null || (floorTexture == null && ceilingTexture == null && uniformFloor)) { return; }
+
+        //Clip the band to the columns that land on the image.
+        int imageWidth = frameImage.getWidth();
+        int viewHeight = frameImage.getHeight();
+        int pixelsPerRay = imageWidth / camera.getResolution();
+        //With more rays than pixels every column is zero pixels wide, as in DrawScene, so there's nothing to draw.
+        if (pixelsPerRay <= 0) { return; }
+        to = Math.min(to, (imageWidth - viewStart.X + pixelsPerRay - 1) / pixelsPerRay);
+
+        //Along a row, each pixel's position on the map (in cells) is a linear function of its column's offset along the camera plane.
+        float viewX = camera.getViewX(), viewY = camera.getViewY();
+        float startX = frameX / mapUnitSize, startY = frameY / mapUnitSize;
+        int ceilingWidth = ceilingTexture == null ? 0 : ceilingTexture.getWidth();
+        int ceilingHeight = ceilingTexture == null ? 0 : ceilingTexture.getHeight();
+        int[] pixels = framePixels;
+        for (int row=viewHeight/2; row<viewHeight - viewStart.Y; row++)
+        {
+            //Find the rows being drawn on the image, and how far away (in cells) the floor is on them.
+            int floorOffset = (viewStart.Y + row) * frameStride;
+            int ceilingRow = viewHeight - 1 - row;
+            int ceilingOffset = (viewStart.Y + ceilingRow) * frameStride;
+            float distance = rowDistance[row] / mapUnitSize;
+            float rowX = startX + viewX * distance, stepX = -viewY * distance;
+            float rowY = startY + viewY * distance, stepY = viewX * distance;
+
+            for (int col=from; col<to; col++)
+            {
+                boolean floorVisible = row >= hits.wallBottom[col];
+                boolean ceilingVisible = ceilingRow < hits.wallTop[col];
+                if (!floorVisible && !ceilingVisible) { continue; }
+
+                //Find the point on the map this pixel sees, and where in its cell it is.
+                float planeOffset = camera.getPlaneOffset(col);
+                float cellX = rowX + stepX * planeOffset;
+                float cellY = rowY + stepY * planeOffset;
+                int mapX = (int)cellX;
+                int mapY = (int)cellY;
+                if (cellX < mapX) { mapX--; }
+                if (cellY < mapY) { mapY--; }
+                float u = cellX - mapX;
+                float v = cellY - mapY;
+
+                //Find the pixels to fill for this column on the image.
+                int x0 = viewStart.X + col * pixelsPerRay;
+                int x1 = Math.min(x0 + pixelsPerRay, imageWidth);
+
+                if (floorVisible)
                 {
-                    texPixel.X = texture.getWidth() - 1 - texPixel.X;
+                    GadzookTexture texture = uniformFloor || !map.isInBounds(mapX, mapY) ? floorTexture : floorById[map.getCellId(mapX, mapY)];
+                    if (texture != null)
+                    {
+                        //Floors are drawn opaque whatever the texture's alpha, as only sprites are see-through.
+                        int width = texture.getWidth(), height = texture.getHeight();
+                        int colour = texture.getPixel(Math.min((int)(u * width), width - 1), Math.min((int)(v * height), height - 1)) | 0xFF000000;
+                        for (int px=x0; px<x1; px++) { pixels[floorOffset + px] = colour; }
+                    }
                 }
-
-                //Get the colour of that pixel.
-                Color pixelColour = texture.getColour(texPixel.X, texPixel.Y);
-
-                //Alter the colour based on whether it was a vertical or horizontal hit.
-                if (!ray.IsVerticalHit) {
-                    pixelColour = pixelColour.darker();
+                if (ceilingVisible && ceilingTexture != null)
+                {
+                    int colour = ceilingTexture.getShadedPixel(Math.min((int)(u * ceilingWidth), ceilingWidth - 1), Math.min((int)(v * ceilingHeight), ceilingHeight - 1)) | 0xFF000000;
+                    for (int px=x0; px<x1; px++) { pixels[ceilingOffset + px] = colour; }
                 }
-
-                //Draw onto the screen.
-                graphics.setColor(pixelColour);
-                graphics.drawRect(start.X + col * pixelsPerRay, (int)(start.Y + lineOffset + row), pixelsPerRay, 1);
             }
-
-            //Increase the column index.
-            col++;
         }
     }
 
     /**
-     * Draws the rays out from the player for calculating the screen draw.
+     * Draws the sprites in view over a band of columns, straight into the pixel buffer.
+     * Sprites are drawn furthest first, and each column of a sprite is skipped if the wall in that column is nearer,
+     * using the ray distances as a depth buffer. Fully transparent texels are skipped, letting what's behind show through.
+     * Only drawn when writing straight into the pixel buffer, and must be called after the walls and floors.
      */
-    private void CastRays()
+    void DrawSprites(int from, int to)
     {
-        //Reset the list of rays.
-        rays = new ArrayList<>();
-
-        //Set the initial ray angle.
-        float rayAngle = playerAngle;
-
-        //Start drawing rays at half the FOV back.
-        rayAngle -= Math.toRadians(fieldOfView) / 2f;
-        if (rayAngle < 0) { rayAngle += 2*Math.PI; }
-        if (rayAngle > 2*Math.PI) { rayAngle -= 2*Math.PI; }
+        if (framePixels == null || visibleSpriteCount == 0) { return; }
 
-        //Begin drawing rays.
-        for (int i=0; i<viewResolution; i++)
+        int imageWidth = frameImage.getWidth();
+        int viewHeight = frameImage.getHeight();
+        int pixelsPerRay = imageWidth / camera.getResolution();
+        int[] pixels = framePixels;
+        for (int s=visibleSpriteCount-1; s>=0; s--)
         {
-            //Cast ray, add to list.
-            rays.add(CastRay(playerPos, rayAngle));
+            //Find the columns of the sprite in this band.
+            int i = (int)visibleSprites[s];
+            float left = spriteLeft[i], right = spriteRight[i];
+            int firstCol = Math.max(from, (int)Math.ceil(left));
+            int lastCol = Math.min(to, (int)Math.ceil(right));
+            if (firstCol >= lastCol) { continue; }
+
+            //It stands on the floor, which is as far below the horizon as a wall at the same depth reaches.
+            float depth = spriteDepth[i];
+            float height = spriteSize[i] * viewHeight / depth;
+            float bottom = viewHeight / 2f + mapUnitSize * viewHeight / (2 * depth);
+            float top = bottom - height;
+            int firstRow = Math.max((int)Math.ceil(top), 0);
+            int lastRow = Math.min((int)Math.ceil(bottom), viewHeight - viewStart.Y);
+            if (firstRow >= lastRow) { continue; }
+
+            GadzookTexture texture = spriteTexture[i];
+            int texWidth = texture.getWidth(), texHeight = texture.getHeight();
+            float texStep = texHeight / height;
+            float texStart = (firstRow + 0.5f - top) * texStep;
+            for (int col=firstCol; col<lastCol; col++)
+            {
+                //Hide it behind nearer walls.
+                if (depth >= hits.distance[col]) { continue; }
+
+                int x0 = viewStart.X + col * pixelsPerRay;
+                int x1 = Math.min(x0 + pixelsPerRay, imageWidth);
+                if (x0 >= x1) { continue; }
 
-            //Increment the ray angle.
-            rayAngle += Math.toRadians(fieldOfView) / (float)viewResolution;
-            if (rayAngle > 2*Math.PI) { rayAngle -= 2*Math.PI; }
-            if (rayAngle < 0) { rayAngle += 2*Math.PI; }
+                //Column N sees along ray N, so sample the texture where that ray crosses the sprite.
+                int texX = Math.min((int)((col - left) / (right - left) * texWidth), texWidth - 1);
+                float texPos = texStart;
+                for (int row=firstRow; row<lastRow; row++, texPos += texStep)
+                {
+                    int colour = texture.getPixel(texX, Math.min((int)texPos, texHeight - 1));
+                    if ((colour >>> 24) == 0) { continue; }
+                    int offset = (viewStart.Y + row) * frameStride;
+                    for (int px=x0; px<x1; px++) { pixels[offset + px] = colour; }
+                }
+            }
         }
     }
 
     /**
-     * Casts a ray on the map, given a start position and an angle, and returns a raycast hit.
-     * @param start The origin of the ray.
-     * @param rayAngle The world angle that the ray is being fired at.
-     * @return Raycast data for the generated ray.
+     * Brings the floor tables up to date for this frame: the distance to the floor on each row, and each cell's floor texture.
      */
-    public Raycast CastRay(Vector2f start, float rayAngle)
+    private void UpdateFloorTables(int viewHeight)
     {
-        ///////////////////////////////////
-        /// HORIZONTAL LINE CALCULATION ///
-        ///////////////////////////////////
-
-        //Create a new vector for the ray intersect position.
-        Vector2f horIntersect = new Vector2f(0,0);
-        float horDistance = Float.MAX_VALUE;
-
-        //Create the depth tracker.
-        int depth = 0;
-
-        //Calculate the Y of the horizontal grid intersect.
-        float aTan = -1 / (float)Math.tan(rayAngle);
-        Vector2f intersectStep = new Vector2f(0,0);
-        if (rayAngle > Math.PI)
+        //A wall at distance d reaches (mapUnitSize * viewHeight / d) / 2 below the horizon, so the floor at that row is at d.
+        if (viewHeight != rowDistanceHeight)
         {
-            //Ray facing up. Calculate intersect for upward ray.
-            horIntersect.Y = (int)(start.Y / mapUnitSize) * mapUnitSize - 0.001f;
-            horIntersect.X = (start.Y - horIntersect.Y) * aTan + start.X;
-
-            //Set the offset steps based on the fact we're facing up.
-            intersectStep.Y = -mapUnitSize;
-            intersectStep.X = -intersectStep.Y * aTan;
+            rowDistance = new float[viewHeight];
+            for (int row=viewHeight/2; row<viewHeight; row++)
+            {
+                rowDistance[row] = mapUnitSize * viewHeight / (2 * (row + 0.5f - viewHeight / 2f));
+            }
+            rowDistanceHeight = viewHeight;
         }
-        else if (rayAngle < Math.PI && rayAngle != 0)
-        {
-            //Ray facing down. Calculate intersect for downward ray.
-            horIntersect.Y = (int)(start.Y / mapUnitSize) * mapUnitSize + mapUnitSize;
-            horIntersect.X = (start.Y - horIntersect.Y) * aTan + start.X;
 
-            //Set the offset steps based on the fact we're facing down.
-            intersectStep.Y = mapUnitSize;
-            intersectStep.X = -intersectStep.Y * aTan;
-        }
-        else
+        //Empty cells with a texture use it for their floor, the rest use the default.
+        uniformFloor = true;
+        for (int id=0; id<map.getDefinitionCount(); id++)
         {
-            //Ray must be facing directly right or left, so don't need to check for horizontal intercept.
-            horIntersect.X = start.X;
-            horIntersect.Y = start.Y;
-            depth = maxRayDepth;
+            MapCell cell = map.getDefinition(id);
+            floorById[id] = cell.getType() == MapCellType.Empty && cell.getTexture() != null ? cell.getTexture() : floorTexture;
+            if (floorById[id] != floorTexture) { uniformFloor = false; }
         }
+    }
 
-        //Trace until a wall hit (or run out of depth).
-        while (depth < maxRayDepth)
+    /**
+     * Writes a single textured wall column straight into a packed ARGB pixel buffer.
+     * The column is clipped to the bounds of the image.
+     */
+    private void FillColumn(int[] pixels, int stride, int imageWidth, int imageHeight, int x, int y, int width, float lineHeight,
+                            GadzookTexture texture, int level, int texX, float cutHeightTop, float originalLineHeight, boolean shaded)
+    {
+        //Clip the column horizontally.
+        int x0 = Math.max(x, 0);
+        int x1 = Math.min(x + width, imageWidth);
+        if (x0 >= x1) { return; }
+
+        //Step through the texture in Y at a fixed rate per screen row.
+        float texStep = texture.getHeight(level) / originalLineHeight;
+        float texPos = cutHeightTop * texStep;
+        int rows = (int)Math.ceil(lineHeight);
+        int maxTexY = texture.getHeight(level) - 1;
+
+        for (int row=0; row<rows; row++, texPos += texStep)
         {
-            //Get the map coordinate.
-            Vector2 mapCoord = new Vector2((int)(horIntersect.X / mapUnitSize), (int)(horIntersect.Y / mapUnitSize));
-
-            //Is the current grid space actually in the world?
-            if (mapCoord.X < mapSize.X && mapCoord.Y < mapSize.Y && mapCoord.X >= 0 && mapCoord.Y >= 0)
+            //Skip rows outside of the image.
+            int pixelY = y + row;
+            if (pixelY < 0) { continue; }
+            if (pixelY >= imageHeight) { break; }
+
+            //Sample the texture, using the darkened variant for horizontal hits. Walls are always opaque, as only sprites are see-through.
+            int texY = Math.min((int)texPos, maxTexY);
+            int colour = (shaded ? texture.getShadedPixel(level, texX, texY) : texture.getPixel(level, texX, texY)) | 0xFF000000;
+
+            //Fill the span for this row.
+            int offset = pixelY * stride;
+            for (int px=x0; px<x1; px++)
             {
-                //Yes, is it a wall?
-                if (map[mapCoord.Y][mapCoord.X].getType() == MapCellType.Wall)
-                {
-                    //Yes. Set distance, then break.
-                    horDistance = RayDistance(start, horIntersect, rayAngle);
-                    break;
-                }
+                pixels[offset + px] = colour;
             }
-
-            //Go to the next intersect.
-            horIntersect.X += intersectStep.X;
-            horIntersect.Y += intersectStep.Y;
-
-            //Keep going.
-            depth++;
         }
+    }
 
-        /////////////////////////////////
-        /// VERTICAL LINE CALCULATION ///
-        /////////////////////////////////
-
-        //Create a new vector for the ray intersect position.
-        Vector2f vertIntersect = new Vector2f(0,0);
-        float vertDistance = Float.MAX_VALUE;
+    /**
+     * Casts the rays out from the player for a band of columns, for calculating the screen draw.
+     */
+    void CastRays(int from, int to)
+    {
+        //Cast a ray per column along the camera's precomputed directions.
+        //These are one unit long along the view direction, so distances are perpendicular to the camera.
+        for (int i=from; i<to; i++)
+        {
+            CastRay(frameX, frameY, camera.getRayX(i), camera.getRayY(i), camera.getRayAngle(i), hits, i);
+        }
+    }
 
-        //Reset the depth tracker.
-        depth = 0;
+    /**
+     * Casts a ray on the map, given a start position and an angle, and returns a raycast hit.
+     * @param start The origin of the ray.
+     * @param rayAngle The world angle that the ray is being fired at.
+     * @return Raycast data for the generated ray.
+     */
+    public Raycast CastRay(Vector2f start, float rayAngle)
+    {
+        return CastRay(start, (float)Math.cos(rayAngle), (float)Math.sin(rayAngle), rayAngle);
+    }
 
-        //Calculate the Y of the horizontal grid intersect.
-        float nTan = (float)-Math.tan(rayAngle);
-        intersectStep = new Vector2f(0,0);
-        if (rayAngle > Math.PI/2 && rayAngle < 3*Math.PI/2)
-        {
-            //Ray facing left. Calculate intersect for left facing ray.
-            vertIntersect.X = (int)(start.X / mapUnitSize) * mapUnitSize - 0.001f;
-            vertIntersect.Y = (start.X - vertIntersect.X) * nTan + start.Y;
+    /**
+     * Casts a ray on the map along a direction vector, and returns a raycast hit.
+     * The distance returned is measured in lengths of the direction vector.
+     * @param start The origin of the ray.
+     * @param dirX The X component of the ray direction.
+     * @param dirY The Y component of the ray direction.
+     * @param rayAngle The world angle that the ray is being fired at.
+     * @return Raycast data for the generated ray.
+     */
+    public Raycast CastRay(Vector2f start, float dirX, float dirY, float rayAngle)
+    {
+        //Cast into a single slot buffer, and copy the result out.
+        RayHitBuffer hit = new RayHitBuffer(1);
+        CastRay(start.X, start.Y, dirX, dirY, rayAngle, hit, 0);
+        return new Raycast(start, new Vector2f(hit.hitX[0], hit.hitY[0]), hit.distance[0], rayAngle,
+                           hit.side[0] == RayHitBuffer.SideVertical, hit.cellX[0], hit.cellY[0], hit.isHit(0));
+    }
 
-            //Set the offset steps based on the fact we're facing left.
-            intersectStep.X = -mapUnitSize;
-            intersectStep.Y = -intersectStep.X * nTan;
-        }
-        else if (rayAngle < Math.PI/2 || rayAngle > 3*Math.PI/2)
+    /**
+     * Casts a ray on the map along a direction vector, writing the hit into a slot of a ray buffer.
+     * The grid is walked once cell by cell (a digital differential analyzer), stepping over whichever
+     * of the next vertical or horizontal grid line is closer.
+     * The distance stored is measured in lengths of the direction vector, so a unit direction gives the
+     * true distance, and a direction one unit long along the view direction gives the perpendicular distance.
+     * @param startX The X origin of the ray.
+     * @param startY The Y origin of the ray.
+     * @param dirX The X component of the ray direction.
+     * @param dirY The Y component of the ray direction.
+     * @param rayAngle The world angle that the ray is being fired at.
+     * @param hits The buffer to write the hit into.
+     * @param index The slot of the buffer to write the hit into.
+     */
+    public void CastRay(float startX, float startY, float dirX, float dirY, float rayAngle, RayHitBuffer hits, int index)
+    {
+        //Get the grid cell that the ray starts in.
+        int cellX = (int)Math.floor(startX / mapUnitSize);
+        int cellY = (int)Math.floor(startY / mapUnitSize);
+
+        //Distance along the ray between two vertical and two horizontal grid lines.
+        float deltaX = Math.abs(mapUnitSize / dirX);
+        float deltaY = Math.abs(mapUnitSize / dirY);
+
+        //Work out the step direction, and the distance along the ray to the first grid line on each axis.
+        int stepX = 1;
+        float sideX = ((cellX + 1) * mapUnitSize - startX) / dirX;
+        if (dirX < 0)
         {
-            //Ray facing right. Calculate intersect for right facing ray.
-            vertIntersect.X = (int)(start.X / mapUnitSize) * mapUnitSize + mapUnitSize;
-            vertIntersect.Y = (start.X - vertIntersect.X) * nTan + start.Y;
-
-            //Set the offset steps based on the fact we're facing right.
-            intersectStep.X = mapUnitSize;
-            intersectStep.Y = -intersectStep.X * nTan;
+            stepX = -1;
+            sideX = (startX - cellX * mapUnitSize) / -dirX;
         }
-        else
+        int stepY = 1;
+        float sideY = ((cellY + 1) * mapUnitSize - startY) / dirY;
+        if (dirY < 0)
         {
-            //Ray must be facing directly up or down, so don't need to check for horizontal intercept.
-            vertIntersect.X = start.X;
-            vertIntersect.Y = start.Y;
-            depth = maxRayDepth;
+            stepY = -1;
+            sideY = (startY - cellY * mapUnitSize) / -dirY;
         }
 
-        //Trace until a wall hit (or run out of depth).
-        while (depth < maxRayDepth)
+        //Rays parallel to an axis never cross the lines of the other axis.
+        if (dirX == 0) { sideX = Float.MAX_VALUE; }
+        if (dirY == 0) { sideY = Float.MAX_VALUE; }
+
+        //Walk the grid until a wall hit, the ray leaves the map, or we run out of depth.
+        //Each step crosses only one grid line, so allow a step budget covering both axes.
+        int mapWidth = map.getWidth();
+        int mapHeight = map.getHeight();
+        boolean inMap = map.isInBounds(cellX, cellY);
+        boolean verticalHit = false;
+        boolean hit = false;
+        float distance = 0;
+        for (int depth = 0; inMap && depth < maxRayDepth * 2; depth++)
         {
-            //Get the map coordinate.
-            Vector2 mapCoord = new Vector2((int)(vertIntersect.X / mapUnitSize), (int)(vertIntersect.Y / mapUnitSize));
-
-            //Is the current grid space actually in the world?
-            if (mapCoord.X < mapSize.X && mapCoord.Y < mapSize.Y && mapCoord.X >= 0 && mapCoord.Y >= 0)
+            //Step over the closest grid line, only the stepped axis can leave the map.
+            if (sideX < sideY)
             {
-                //Yes, is it a wall?
-                if (map[mapCoord.Y][mapCoord.X].getType() == MapCellType.Wall)
-                {
-                    //Yes. Set distance, then break.
-                    vertDistance = RayDistance(start, vertIntersect, rayAngle);
-                    break;
-                }
+                distance = sideX;
+                sideX += deltaX;
+                cellX += stepX;
+                verticalHit = true;
+                if (cellX < 0 || cellX >= mapWidth) { break; }
+            }
+            else
+            {
+                distance = sideY;
+                sideY += deltaY;
+                cellY += stepY;
+                verticalHit = false;
+                if (cellY < 0 || cellY >= mapHeight) { break; }
             }
 
-            //Go to the next intersect.
-            vertIntersect.X += intersectStep.X;
-            vertIntersect.Y += intersectStep.Y;
-
-            //Keep going.
-            depth++;
-        }
-
-        //Figure out the optimal ray to use (one with shortest distance).
-        Vector2f optimalRay = horIntersect;
-        float optimalDist = horDistance;
-        if (vertDistance < horDistance)
-        {
-            optimalRay = vertIntersect;
-            optimalDist = vertDistance;
+            //Is it a wall?
+            if (map.isSolid(cellX, cellY))
+            {
+                hit = true;
+                break;
+            }
         }
 
-        //Add the generated ray to the list of rays this frame.
-        return new Raycast(start, optimalRay, optimalDist, rayAngle, optimalRay.equals(vertIntersect));
-    }
-
-    /**
-     * Uses the pythagorean theorem to calculate distance between a destination and source of a ray.
-     */
-    private float RayDistance(Vector2f start, Vector2f end, float angle)
-    {
-        return (float)Math.sqrt(Math.pow(end.X - start.X, 2) + Math.pow(end.Y - start.Y, 2));
+        //Find the point the ray ended at.
+        float endX = startX + dirX * distance;
+        float endY = startY + dirY * distance;
+
+        //Find where along the wall the ray hit, flipping so textures read the same way from either side.
+        //Flip horizontal hits on rays facing down, and vertical hits on rays facing left.
+        float wallCoordinate = (verticalHit ? endY : endX) / mapUnitSize;
+        float texU = wallCoordinate - (float)Math.floor(wallCoordinate);
+        if ((!verticalHit && dirY > 0) || (verticalHit && dirX < 0)) { texU = 1 - texU; }
+
+        //Store the hit, missed rays report an infinite distance.
+        hits.distance[index] = hit ? distance : Float.MAX_VALUE;
+        hits.angle[index] = rayAngle;
+        hits.side[index] = !hit ? RayHitBuffer.SideNone : (verticalHit ? RayHitBuffer.SideVertical : RayHitBuffer.SideHorizontal);
+        hits.cellX[index] = cellX;
+        hits.cellY[index] = cellY;
+        hits.texU[index] = texU;
+        hits.hitX[index] = endX;
+        hits.hitY[index] = endY;
     }
 }
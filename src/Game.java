@@ -2,24 +2,89 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The entrypoint for the game. Spawns enemies on screen, etc.
+ * Takes an optional map file to play, and these options:
+ * <ul>
+ *     <li>--record [file]: records the input of each tick to the file, for replaying later.</li>
+ *     <li>--replay [file]: replays a recording headlessly as fast as possible instead of playing, printing the frame times.</li>
+ *     <li>--checksums [file]: when replaying, writes the checksum of each frame to the file, a line per frame.</li>
+ * </ul>
  */
 public class Game {
 
     public static void main(String[] args) throws IOException {
 
+        //Read the options, anything else is the map file.
+        String mapPath = null, recordPath = null, replayPath = null, checksumsPath = null;
+        for (int i=0; i<args.length; i++)
+        {
+            //Every option takes a file.
+            boolean isOption = args[i].equals("--record") || args[i].equals("--replay") || args[i].equals("--checksums");
+            if (isOption && i + 1 >= args.length)
+            {
+                System.err.println("Missing file after " + args[i] + ".");
+                System.err.println("Usage: Game [--record file] [--replay file [--checksums file]] [map]");
+                System.exit(1);
+            }
+
+            switch (args[i])
+            {
+                case "--record": recordPath = args[++i]; break;
+                case "--replay": replayPath = args[++i]; break;
+                case "--checksums": checksumsPath = args[++i]; break;
+                default: mapPath = args[i]; break;
+            }
+        }
+
+        //Replay a recording without a window, if asked to.
+        if (replayPath != null)
+        {
+            var scene = mapPath != null ? new GadzooksScene(GadzookMapFile.Load(mapPath)) : new GadzooksScene();
+            scene.SetRenderThreads(Runtime.getRuntime().availableProcessors());
+            long[] checksums = scene.Replay(replayPath, new BufferedImage(1440, 600, BufferedImage.TYPE_INT_ARGB));
+            if (checksumsPath != null)
+            {
+                try (PrintWriter writer = new PrintWriter(checksumsPath))
+                {
+                    for (long checksum : checksums) { writer.printf("%08x%n", checksum); }
+                }
+            }
+            System.exit(0);
+        }
+
         //Create a game instance.
         GameArena arena = new GameArena(1440, 600);
 
         //Set the refresh rate to 60hz.
         GameArena.setRefreshRateHertz(60);
 
-        //Create and call the raycaster scene.
-        var scene = new GadzooksScene();
+        //Expose frame timings over JMX, for diagnosing hitches.
+        arena.getProfiler().Register();
+
+        //Decode the textures in parallel behind a loading screen, starting as soon as the ones needed for the first frame are in.
+        //Any that fail are left for the scene to load itself, so the error is reported there.
+        List<String> firstFrame = new ArrayList<>();
+        firstFrame.add(GadzooksScene.DefaultTexturePath);
+        if (mapPath != null) { firstFrame.addAll(GadzookMapFile.ReadTexturePaths(mapPath)); }
+        AssetLoader loader = new AssetLoader(TextureRegistry.getShared(), Runtime.getRuntime().availableProcessors());
+        CompletableFuture<Void> ready = loader.LoadTextures(firstFrame);
+        LoadingScreen loadingScreen = new LoadingScreen(loader);
+        arena.addRenderer(loadingScreen);
+        while (!ready.isDone()) { arena.pause(); }
+        arena.removeRenderer(loadingScreen);
+        loader.Shutdown();
+
+        //Create and call the raycaster scene, using a map file if one is given.
+        var scene = mapPath != null ? new GadzooksScene(GadzookMapFile.Load(mapPath)) : new GadzooksScene();
+        scene.SetRenderThreads(Runtime.getRuntime().availableProcessors());
+        scene.recordPath = recordPath;
         scene.Run(arena);
     }
 }
@@ -21,14 +21,18 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 	private int arenaWidth;
 	private int arenaHeight;
 
-	private boolean exiting = false; 
+	private volatile boolean exiting = false; 
 
 	//renderers on this arena
 	private ArrayList<GadzookRenderer> renderers = new ArrayList<>();
 
 	private HashMap<String, Color> colours = new HashMap<>();
 
-	private HashMap<Integer, Boolean> keys = new HashMap<>();
+	//the state of every key, written on the event thread and read from the game thread
+	private final KeyStateTable keys = new KeyStateTable(KeyStateTable.DefaultCapacity);
+
+	//every key and mouse event in order, timestamped, for the simulation to drain once per tick
+	private final InputEventQueue inputEvents = new InputEventQueue(4096);
 	private int mouseX = 0;
 	private int mouseY = 0;
 	private boolean leftMouse = false;
@@ -36,6 +40,12 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 
 	private BufferedImage buffer;
 	private Graphics2D graphics;
+
+	//The last finished frame, copied out of the back buffer for paint() to show, and the lock guarding it.
+	//Only this is held while painting, so the event thread never waits for a frame to finish rendering.
+	private BufferedImage front;
+	private Graphics2D frontGraphics;
+	private final Object frontLock = new Object();
 	private Map<RenderingHints.Key, Object> renderingHints;
 	private boolean rendered = false;
 
@@ -44,6 +54,44 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 	private Instant lastPause = Instant.now();
 	private Instant lastFrame = Instant.now();
 
+	//Paces the simulation ticks (calls to pause()), and the frames when rendering at a capped rate.
+	private FrameScheduler tickScheduler = new FrameScheduler(1000 / refreshRateMs);
+	private FrameScheduler frameScheduler = new FrameScheduler(60);
+
+	//The most frames to render per second, zero to render once per tick instead.
+	private volatile double frameRateCap = 0;
+
+	//The number of ticks so far, the tick last rendered, and the lock used to signal a new tick to the render thread.
+	private long tickCount = 0;
+	private long renderedTick = 0;
+	private final Object tickSignal = new Object();
+
+	//The number of ticks that passed without being rendered, as rendering fell behind.
+	private volatile long droppedTicks = 0;
+
+	//How long the render thread waits for a tick before rendering anyway, so arenas without a game loop still draw.
+	private static final long MaxTickWaitMs = 250;
+
+	//The page flipping strategy used to present frames to the window, when there is one.
+	private BufferStrategy bufferStrategy;
+
+	//Times the phases of each frame.
+	private FrameProfiler profiler = new FrameProfiler(600);
+
+	//The regions changed by the last frame rendered, and by the frame presented before the last one.
+	private DamageRegion damage = new DamageRegion();
+	private DamageRegion previousDamage = new DamageRegion();
+
+	//The damage added by a single renderer, and the region presented to the screen.
+	private DamageRegion rendererDamage = new DamageRegion();
+	private DamageRegion presentDamage = new DamageRegion();
+
+	//Whether the next frame must be redrawn in full, such as after the renderers change.
+	private boolean fullRedraw = true;
+
+	//The layers of retained renderers, kept between frames.
+	private IdentityHashMap<GadzookRenderer, BufferedImage> layers = new IdentityHashMap<>();
+
 	/**
 	 * Create a view of a GameArena.
 	 * 
@@ -131,15 +179,232 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 			frame.addKeyListener(this);
 	}
 
+	/**
+	 * The render loop. Renders once per tick (each call to pause()), or at the capped frame rate if one is set,
+	 * rather than continuously, so rendering doesn't burn a whole core or flood the event thread.
+	 */
 	public void run() {
 		while (!exiting) {
-			this.repaint();
+			//Wait for the next frame to be due.
+			if (frameRateCap > 0) {
+				frameScheduler.setRateHertz(frameRateCap);
+				frameScheduler.WaitForNextFrame();
+			}
+			else {
+				waitForTick();
+			}
+
+			//Render and present it, if we're on screen.
+			if (this.isDisplayable()) {
+				profiler.BeginFrame();
+				renderFrame();
+				presentFrame();
+				profiler.EndFrame();
+			}
 		}
 
 		if (frame != null)
 			frame.dispatchEvent(new WindowEvent(frame, WindowEvent.WINDOW_CLOSING));
 	}
 
+	/**
+	 * Waits on the render thread until a tick has passed that hasn't been rendered yet.
+	 * Gives up after a while, so arenas that never call pause() are still drawn.
+	 */
+	private void waitForTick()
+	{
+		synchronized (tickSignal)
+		{
+			long deadline = System.currentTimeMillis() + MaxTickWaitMs;
+			long remaining;
+			while (tickCount == renderedTick && !exiting && (remaining = deadline - System.currentTimeMillis()) > 0) {
+				try { tickSignal.wait(remaining); }
+				catch (InterruptedException e) { return; }
+			}
+
+			//Any ticks beyond the one we're about to render were never drawn.
+			if (tickCount - renderedTick > 1)
+				droppedTicks += tickCount - renderedTick - 1;
+			renderedTick = tickCount;
+		}
+	}
+
+	/**
+	 * Creates the back buffer, if it hasn't been already.
+	 */
+	private void ensureBuffer()
+	{
+		if (!rendered)
+		{
+			// Refit the window now its insets are known, on the event thread, as this runs on the render thread.
+			int width = arenaWidth, height = arenaHeight;
+			SwingUtilities.invokeLater(() -> this.setSize(width, height));
+
+			// Create a buffer the same size of the window, which we can reuse from frame to frame to improve performance.
+			buffer = new BufferedImage(arenaWidth, arenaHeight, BufferedImage.TYPE_INT_ARGB);
+			graphics = buffer.createGraphics();
+			graphics.setRenderingHints(renderingHints);
+			synchronized (frontLock)
+			{
+				front = new BufferedImage(arenaWidth, arenaHeight, BufferedImage.TYPE_INT_ARGB);
+				frontGraphics = front.createGraphics();
+			}
+
+			// Remember that we've completed this initialisation, so that we don't do it again...
+			rendered = true;
+		}
+	}
+
+	/**
+	 * Draws every attached renderer into the back buffer, within the regions they damaged this frame.
+	 * Retained renderers are drawn into their own layers only when they've changed, and composited from them.
+	 */
+	private void renderFrame()
+	{
+		synchronized (this)
+		{
+			ensureBuffer();
+			damage.Reset(arenaWidth, arenaHeight);
+			if (this.exiting)
+				return;
+
+			if (fullRedraw) {
+				damage.AddAll();
+				fullRedraw = false;
+			}
+
+			//Find out what's changed, bringing the layers of retained renderers up to date as we go.
+			for (GadzookRenderer r : renderers)
+			{
+				rendererDamage.Reset(arenaWidth, arenaHeight);
+				r.AddDamage(rendererDamage, arenaWidth, arenaHeight);
+				if (r.isRetained())
+					updateLayer(r, rendererDamage);
+				damage.Add(rendererDamage);
+			}
+			if (damage.isEmpty())
+				return;
+
+			//Clear and redraw just the damage, letting every renderer draw over it in order.
+			graphics.setClip(damage.getShape());
+			graphics.clearRect(0,0, arenaWidth, arenaHeight);
+			for (GadzookRenderer r : renderers)
+			{
+				if (r.isRetained())
+					graphics.drawImage(layers.get(r), 0, 0, null);
+				else
+					r.Draw(graphics, buffer);
+			}
+			graphics.setClip(null);
+			publishFrame();
+		}
+	}
+
+	/**
+	 * Copies the damaged parts of the finished back buffer into the front buffer, for paint() to show.
+	 */
+	private void publishFrame()
+	{
+		synchronized (frontLock)
+		{
+			frontGraphics.setClip(damage.getShape());
+			frontGraphics.drawImage(buffer, 0, 0, null);
+			frontGraphics.setClip(null);
+		}
+	}
+
+	/**
+	 * Redraws the damaged parts of a retained renderer's layer, creating the layer if it doesn't have one yet.
+	 */
+	private void updateLayer(GadzookRenderer r, DamageRegion layerDamage)
+	{
+		BufferedImage layer = layers.get(r);
+		if (layer == null) {
+			layer = new BufferedImage(arenaWidth, arenaHeight, BufferedImage.TYPE_INT_ARGB);
+			layers.put(r, layer);
+			layerDamage.AddAll();
+		}
+		if (layerDamage.isEmpty())
+			return;
+
+		//Clear the damage back to transparent, then draw over it.
+		Graphics2D layerGraphics = layer.createGraphics();
+		layerGraphics.setRenderingHints(renderingHints);
+		layerGraphics.setClip(layerDamage.getShape());
+		layerGraphics.setComposite(AlphaComposite.Clear);
+		layerGraphics.fillRect(0, 0, arenaWidth, arenaHeight);
+		layerGraphics.setComposite(AlphaComposite.SrcOver);
+		r.Draw(layerGraphics, layer);
+		layerGraphics.dispose();
+	}
+
+	/**
+	 * Presents the damaged parts of the back buffer to the screen.
+	 * Page flips through a buffer strategy when we own the window, otherwise asks Swing to repaint.
+	 */
+	private void presentFrame()
+	{
+		//Set up page flipping the first time our own window is ready for it.
+		if (bufferStrategy == null && frame != null && frame.isDisplayable() && frame.getContentPane() == this)
+		{
+			frame.setIgnoreRepaint(true);
+			frame.createBufferStrategy(2);
+			bufferStrategy = frame.getBufferStrategy();
+		}
+
+		synchronized (this)
+		{
+			//Nothing changed, so there's nothing to show.
+			if (damage.isEmpty())
+				return;
+
+			if (bufferStrategy == null)
+			{
+				//Let Swing repaint just the damage, or everything at once if it's all damaged.
+				Insets insets = this.getInsets();
+				if (damage.isFull()) {
+					this.repaint();
+					return;
+				}
+				for (int i=0; i<damage.getCount(); i++)
+					this.repaint(damage.getX(i) + insets.left, damage.getY(i) + insets.top, damage.getWidth(i), damage.getHeight(i));
+				return;
+			}
+
+			//Work out what the page we're about to draw on is missing.
+			//Blitted and copied pages hold the last frame, flipped ones may hold the frame before it, or nothing useful.
+			presentDamage.Set(damage);
+			BufferCapabilities capabilities = bufferStrategy.getCapabilities();
+			BufferCapabilities.FlipContents contents = capabilities.getFlipContents();
+			if (capabilities.isPageFlipping() && contents != BufferCapabilities.FlipContents.COPIED)
+			{
+				if (contents == BufferCapabilities.FlipContents.PRIOR)
+					presentDamage.Add(previousDamage);
+				else
+					presentDamage.AddAll();
+			}
+			previousDamage.Set(damage);
+
+			//Draw the damage into the window's content area, redrawing it all if the strategy's contents were lost.
+			long start = System.nanoTime();
+			Point origin = SwingUtilities.convertPoint(this, 0, 0, frame);
+			Shape clip = presentDamage.getShape();
+			do {
+				do {
+					Graphics page = bufferStrategy.getDrawGraphics();
+					page.translate(origin.x, origin.y);
+					page.setClip(clip);
+					page.drawImage(buffer, 0, 0, null);
+					page.dispose();
+					clip = null;
+				} while (bufferStrategy.contentsRestored());
+				bufferStrategy.show();
+			} while (bufferStrategy.contentsLost());
+			Toolkit.getDefaultToolkit().sync();
+			profiler.Record(FrameProfiler.Phase.Blit, start);
+		}
+	}
+
 	/**
 	 * Update the size of the GameArena.
 	 *
@@ -176,6 +441,10 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 	public void exit()
 	{
 		this.exiting = true;
+		synchronized (tickSignal)
+		{
+			tickSignal.notifyAll();
+		}
 	}
 
 	/**
@@ -185,19 +454,6 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 	{
 		Graphics2D window = (Graphics2D) gr;
 
-		if (!rendered)
-		{
-			this.setSize(arenaWidth, arenaHeight);
-
-			// Create a buffer the same size of the window, which we can reuse from frame to frame to improve performance.
-			buffer = new BufferedImage(arenaWidth, arenaHeight, BufferedImage.TYPE_INT_ARGB);
-			graphics = buffer.createGraphics();
-			graphics.setRenderingHints(renderingHints);
-
-			// Remember that we've completed this initialisation, so that we don't do it again...
-			rendered = true;
-		}
-
 		if (frame == null)
 		{
 			// Find the JFrame we have been added to, and attach a KeyListner
@@ -209,21 +465,14 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 
 		window.setRenderingHints(renderingHints);
 
-		synchronized (this)
+		//Frames are rendered on the render thread, so just show the latest finished one.
+		long start = System.nanoTime();
+		synchronized (frontLock)
 		{
-			if (!this.exiting)
-			{
-				graphics.clearRect(0,0, arenaWidth, arenaHeight);
-
-				//Allow all attached renderers to draw to the screen.
-				for (GadzookRenderer r : renderers)
-				{
-					r.Draw(graphics, buffer);
-				}
-			}
-					
-			window.drawImage(buffer, this.getInsets().left, this.getInsets().top, this);
+			if (front != null)
+				window.drawImage(front, this.getInsets().left, this.getInsets().top, this);
 		}
+		profiler.Record(FrameProfiler.Phase.Blit, start);
 	}
 
 	/**
@@ -243,6 +492,7 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 
 			//resort for render order
 			renderers.sort(Comparator.comparingInt((GadzookRenderer r) -> r.RenderPriority));
+			fullRedraw = true;
 		}
 	}
 
@@ -256,6 +506,8 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 		synchronized (this)
 		{
 			renderers.remove(o);
+			layers.remove(o);
+			fullRedraw = true;
 		}
 	}
 
@@ -266,6 +518,8 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 	public void clear() {
 		synchronized(this) {
 			renderers.clear();
+			layers.clear();
+			fullRedraw = true;
 		}
 	}
 
@@ -295,22 +549,49 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 	 */
 	public static void setRefreshRateHertz(int hz) { refreshRateMs = 1000 / (double)hz; }
 
+	/**
+	 * Sets the most frames to render per second.
+	 * Zero (the default) renders exactly once per tick instead, that is once per call to pause().
+	 */
+	public void setFrameRateCap(double hz) { frameRateCap = hz; }
+
+	/**
+	 * Returns the profiler timing this arena's frames.
+	 */
+	public FrameProfiler getProfiler() { return profiler; }
+
+	/**
+	 * Returns the number of ticks (calls to pause()) that were already late when they were called.
+	 */
+	public long getMissedTicks() { return tickScheduler.getMissedDeadlines(); }
+
+	/**
+	 * Returns the number of frames that missed their deadline, or ticks that were never rendered as rendering fell behind.
+	 */
+	public long getMissedFrames() { return droppedTicks + frameScheduler.getMissedDeadlines(); }
+
 	/**
 	 * Pause for the game pause duration of a second.
-	 * This method causes your program to delay for refreshRateMs milliseconds. You'll find this useful if you're trying to animate your application.
-	 *
+	 * This method causes your program to delay until refreshRateMs milliseconds after the last pause() call.
+	 * You'll find this useful if you're trying to animate your application.
+	 * Each call is one tick, and signals the render thread to draw a frame for it.
 	 */
 	public void pause()
 	{
-		//Calculate delta since last call.
-		long timeToWait = (long)refreshRateMs -  Duration.between(lastPause, Instant.now()).toMillis();
-		if (timeToWait < 0) { lastPause = Instant.now(); return; }
-
-		//Wait.
-		try { Thread.sleep(timeToWait); }
-		catch (Exception e) {};
+		//Wait until the next tick is due, with sub-millisecond accuracy.
+		long start = System.nanoTime();
+		tickScheduler.setPeriodNanos((long)(refreshRateMs * 1_000_000));
+		tickScheduler.WaitForNextFrame();
+		profiler.Record(FrameProfiler.Phase.Pause, start);
 		lastFrame = lastPause;
 		lastPause = Instant.now();
+
+		//Let the render thread know there's a new tick to draw.
+		synchronized (tickSignal)
+		{
+			tickCount++;
+			tickSignal.notifyAll();
+		}
 	}
 
  	public void keyPressed(KeyEvent e) 
@@ -320,26 +601,31 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
  	
 	public void keyAction(KeyEvent e,boolean yn) 
 	{
-		int code = e.getKeyCode();
-
-		//Update the key in the hashmap.
-		if (keys.containsKey(code)) {
-			keys.replace(code, yn);
-		}
-		else {
-			keys.put(code, yn);
-		}
+		//Update the key in the state table, and queue the event.
+		if (yn) { keys.Press(e.getKeyCode()); }
+		else { keys.Release(e.getKeyCode()); }
+		inputEvents.Push(yn ? InputEventQueue.KeyPressed : InputEventQueue.KeyReleased, e.getKeyCode(), 0, 0, System.nanoTime());
 	}
 
 	/**
-	 * Returns whether the provided key is pressed.
+	 * Returns whether the provided key is pressed right now.
+	 * Simulations reading keys once per tick should use a snapshot of getKeyStates() instead, so short presses aren't missed.
 	 */
 	public boolean isKeyPressed(int key)
 	{
-		if (!keys.containsKey(key)) { return false; }
-		return keys.get(key);
+		return keys.isDown(key);
 	}
 
+	/**
+	 * Returns the state of every key, which can be read from any thread.
+	 */
+	public KeyStateTable getKeyStates() { return keys; }
+
+	/**
+	 * Returns the queue of key and mouse events, for the simulation to drain once per tick.
+	 */
+	public InputEventQueue getInputEvents() { return inputEvents; }
+
 	public void keyReleased(KeyEvent e){
 		keyAction(e,false);
 	}
@@ -357,6 +643,8 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 
 		if (e.getButton() == MouseEvent.BUTTON3)
 			this.rightMouse = true;
+
+		inputEvents.Push(InputEventQueue.MousePressed, e.getButton(), e.getX(), e.getY(), System.nanoTime());
 	}
 
 	public void mouseReleased(MouseEvent e) 
@@ -366,6 +654,8 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 
 		if (e.getButton() == MouseEvent.BUTTON3)
 			this.rightMouse = false;
+
+		inputEvents.Push(InputEventQueue.MouseReleased, e.getButton(), e.getX(), e.getY(), System.nanoTime());
 	}
 
 	public void mouseEntered(MouseEvent e) 
@@ -384,12 +674,14 @@ public class GameArena extends JPanel implements Runnable, KeyListener, MouseLis
 	{
 		mouseX = e.getX();	
 		mouseY = e.getY();	
+		inputEvents.Push(InputEventQueue.MouseMoved, 0, e.getX(), e.getY(), System.nanoTime());
 	}
 
 	public void mouseDragged(MouseEvent e) 
 	{
 		mouseX = e.getX();
 		mouseY = e.getY();
+		inputEvents.Push(InputEventQueue.MouseMoved, 0, e.getX(), e.getY(), System.nanoTime());
 	}
 
 	/** 
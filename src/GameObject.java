@@ -1,10 +1,12 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Represents a single object that receives tick updates within the game.
  */
 public abstract class GameObject {
 
-    //Unique ID tracker.
-    static int idIndex = 0;
+    //Unique ID tracker, atomic so objects can be created from any thread.
+    static final AtomicInteger idIndex = new AtomicInteger();
 
     //Unique ID of this sprite.
     public int ID;
@@ -15,8 +17,7 @@ public abstract class GameObject {
      */
     public GameObject()
     {
-        ID = idIndex;
-        idIndex++;
+        ID = idIndex.getAndIncrement();
     }
 
     /**
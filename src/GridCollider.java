@@ -0,0 +1,167 @@
+/**
+ * Moves circles through a map without letting them into its solid cells, sliding them along any walls they run into.
+ * Each move is swept in sub-steps no longer than the circle's radius (or half a cell, if smaller), and after each
+ * sub-step the circle is pushed back out of every solid cell it overlaps, along the shortest way out.
+ * Pushing out only removes the part of the motion going into the wall, so what's left slides along it,
+ * and no sub-step is long enough to carry the circle through a wall, however fast it moves.
+ * Cells outside the map are treated as solid.
+ *
+ * A collider keeps its result in fields between calls, so each thread moving things needs its own.
+ */
+public class GridCollider {
+
+    //The most sub-steps a single move is split into, past which very long moves are allowed to tunnel.
+    private static final int MaxSubSteps = 256;
+
+    //The most times a circle is pushed out of the cells around it per sub-step, to settle into corners.
+    private static final int ResolveIterations = 3;
+
+    //The map collided against, and the size of its cells in world units.
+    private GadzookMap map;
+    private final float cellSize;
+
+    //The position the last move ended at, in world units, and whether it hit anything.
+    private float resultX;
+    private float resultY;
+    private boolean hit;
+
+    /**
+     * Creates a collider for a map, with cells of the given size in world units.
+     */
+    public GridCollider(GadzookMap map_, float cellSize_)
+    {
+        map = map_;
+        cellSize = cellSize_;
+    }
+
+    /**
+     * Sets the map collided against.
+     */
+    public void setMap(GadzookMap map_) { map = map_; }
+
+    /**
+     * Moves a circle, updating its position in place.
+     * @param position The centre of the circle, in world units.
+     * @param dx How far to move it along X, in world units.
+     * @param dy How far to move it along Y, in world units.
+     * @param radius The radius of the circle, in world units.
+     * @return Whether it ran into anything along the way.
+     */
+    public boolean Move(Vector2f position, float dx, float dy, float radius)
+    {
+        Sweep(position.X, position.Y, dx, dy, radius);
+        position.X = resultX;
+        position.Y = resultY;
+        return hit;
+    }
+
+    /**
+     * Moves a batch of circles, updating their positions in place.
+     * The circles only collide with the map, not each other.
+     * @param xs The X position of each circle's centre, in world units.
+     * @param ys The Y position of each circle's centre, in world units.
+     * @param dxs How far to move each circle along X, in world units.
+     * @param dys How far to move each circle along Y, in world units.
+     * @param radii The radius of each circle, in world units.
+     * @param from The first circle to move.
+     * @param to The circle to stop at (exclusive).
+     * @return The number of circles that ran into something.
+     */
+    public int MoveAll(float[] xs, float[] ys, float[] dxs, float[] dys, float[] radii, int from, int to)
+    {
+        int hits = 0;
+        for (int i=from; i<to; i++)
+        {
+            Sweep(xs[i], ys[i], dxs[i], dys[i], radii[i]);
+            xs[i] = resultX;
+            ys[i] = resultY;
+            if (hit) { hits++; }
+        }
+        return hits;
+    }
+
+    /**
+     * Sweeps a circle along a move in sub-steps, pushing it out of the walls after each, leaving the end in the result fields.
+     */
+    private void Sweep(float x, float y, float dx, float dy, float radius)
+    {
+        hit = false;
+        float maxStep = Math.max(Math.min(radius, cellSize / 2), 1e-3f);
+        int steps = Math.min(MaxSubSteps, Math.max(1, (int)Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)) / maxStep)));
+        float stepX = dx / steps, stepY = dy / steps;
+
+        resultX = x;
+        resultY = y;
+        for (int i=0; i<steps; i++)
+        {
+            resultX += stepX;
+            resultY += stepY;
+            Resolve(radius);
+        }
+    }
+
+    /**
+     * Pushes the circle at the result position out of every solid cell it overlaps.
+     */
+    private void Resolve(float radius)
+    {
+        float radiusSquared = radius * radius;
+        for (int iteration=0; iteration<ResolveIterations; iteration++)
+        {
+            boolean pushed = false;
+            int minCellX = (int)Math.floor((resultX - radius) / cellSize), maxCellX = (int)Math.floor((resultX + radius) / cellSize);
+            int minCellY = (int)Math.floor((resultY - radius) / cellSize), maxCellY = (int)Math.floor((resultY + radius) / cellSize);
+            for (int cellY=minCellY; cellY<=maxCellY; cellY++)
+            {
+                for (int cellX=minCellX; cellX<=maxCellX; cellX++)
+                {
+                    if (!isBlocked(cellX, cellY)) { continue; }
+
+                    //Find the closest point of the cell to the centre.
+                    float left = cellX * cellSize, top = cellY * cellSize;
+                    float closestX = Math.max(left, Math.min(resultX, left + cellSize));
+                    float closestY = Math.max(top, Math.min(resultY, top + cellSize));
+                    float awayX = resultX - closestX, awayY = resultY - closestY;
+                    float distanceSquared = awayX * awayX + awayY * awayY;
+                    if (distanceSquared >= radiusSquared) { continue; }
+
+                    if (distanceSquared > 0)
+                    {
+                        //Push straight out from the closest point, until it just touches.
+                        float distance = (float)Math.sqrt(distanceSquared);
+                        float push = (radius - distance) / distance;
+                        resultX += awayX * push;
+                        resultY += awayY * push;
+                    }
+                    else
+                    {
+                        //The centre's inside the cell, so push it out of the nearest side.
+                        float toLeft = resultX - left, toRight = left + cellSize - resultX;
+                        float toTop = resultY - top, toBottom = top + cellSize - resultY;
+                        float nearest = Math.min(Math.min(toLeft, toRight), Math.min(toTop, toBottom));
+                        if (nearest == toLeft) { resultX = left - radius; }
+                        else if (nearest == toRight) { resultX = left + cellSize + radius; }
+                        else if (nearest == toTop) { resultY = top - radius; }
+                        else { resultY = top + cellSize + radius; }
+                    }
+                    pushed = true;
+                    hit = true;
+                }
+            }
+            if (!pushed) { return; }
+        }
+    }
+
+    /**
+     * Returns whether a cell blocks movement, which cells outside the map do.
+     */
+    private boolean isBlocked(int cellX, int cellY)
+    {
+        return !map.isInBounds(cellX, cellY) || map.isSolid(cellX, cellY);
+    }
+
+    /**
+     * Returns the size of a map cell, in world units.
+     */
+    public float getCellSize() { return cellSize; }
+}
@@ -0,0 +1,254 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded queue of timestamped input events, which any number of threads can push to without locking,
+ * and a single thread (the simulation) drains in batches once per tick.
+ * Events are stored field by field in a ring of preallocated arrays, so pushing and draining never allocate.
+ * Each slot has a sequence number saying whose turn it is, so producers claim slots with one CAS on the tail,
+ * and the consumer knows a slot is ready once its producer has published it.
+ * When the queue is full new mouse movements are dropped and counted, rather than blocking the event thread.
+ * Key and button events are never dropped, as losing a release would leave it held down. They overflow into a locked
+ * side batch instead, which everything else then queues behind until the consumer catches up, to keep them in order.
+ */
+public class InputEventQueue {
+
+    /**
+     * A key was pressed. The code is the key code.
+     */
+    public static final int KeyPressed = 0;
+
+    /**
+     * A key was released. The code is the key code.
+     */
+    public static final int KeyReleased = 1;
+
+    /**
+     * A mouse button was pressed. The code is the button, and the position is where.
+     */
+    public static final int MousePressed = 2;
+
+    /**
+     * A mouse button was released. The code is the button, and the position is where.
+     */
+    public static final int MouseReleased = 3;
+
+    /**
+     * The mouse moved, with or without a button held. The position is where to.
+     */
+    public static final int MouseMoved = 4;
+
+    //The fields of the event in each slot.
+    private final int[] types;
+    private final int[] codes;
+    private final int[] xs;
+    private final int[] ys;
+    private final long[] times;
+
+    //The sequence number of each slot: its position when free to write, its position plus one once published.
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    //The next position to be claimed by a producer, and the next to be read by the consumer.
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    //The number of events dropped because the queue was full.
+    private final AtomicLong dropped = new AtomicLong();
+
+    //The events that didn't fit in the ring, and whether there are any to drain.
+    private final Batch overflow = new Batch();
+    private volatile boolean overflowing = false;
+
+    /**
+     * Creates a queue holding up to the given number of events, rounded up to a power of two.
+     */
+    public InputEventQueue(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        types = new int[size];
+        codes = new int[size];
+        xs = new int[size];
+        ys = new int[size];
+        times = new long[size];
+        sequences = new AtomicLongArray(size);
+        for (int i=0; i<size; i++) { sequences.set(i, i); }
+        mask = size - 1;
+    }
+
+    /**
+     * Pushes an event onto the queue. Safe to call from any thread.
+     * @param type The type of event, one of the constants on this class.
+     * @param code The key code or mouse button, zero for mouse movement.
+     * @param x The X position of the mouse, zero for key events.
+     * @param y The Y position of the mouse, zero for key events.
+     * @param nanos When the event happened, from System.nanoTime().
+     * @return Whether the event was queued, false if it was a mouse movement dropped because the queue was full.
+     */
+    public boolean Push(int type, int code, int x, int y, long nanos)
+    {
+        //Once anything has overflowed, later events have to follow it rather than jump ahead through the ring.
+        if (!overflowing && TryPush(type, code, x, y, nanos)) { return true; }
+        if (type == MouseMoved)
+        {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        synchronized (overflow)
+        {
+            overflowing = true;
+            overflow.Add(type, code, x, y, nanos);
+        }
+        return true;
+    }
+
+    /**
+     * Pushes an event into the ring, unless it's full.
+     * @return Whether the event was queued.
+     */
+    private boolean TryPush(int type, int code, int x, int y, long nanos)
+    {
+        //Claim the next slot, unless the consumer hasn't freed it up yet.
+        long position;
+        int slot;
+        while (true)
+        {
+            position = tail.get();
+            slot = (int)position & mask;
+            long difference = sequences.get(slot) - position;
+            if (difference == 0 && tail.compareAndSet(position, position + 1)) { break; }
+            if (difference < 0) { return false; }
+        }
+
+        //Fill it in, then publish it to the consumer.
+        types[slot] = type;
+        codes[slot] = code;
+        xs[slot] = x;
+        ys[slot] = y;
+        times[slot] = nanos;
+        sequences.set(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * Moves every event published so far into a batch, oldest first, replacing what was in it.
+     * Must only be called from one thread at a time.
+     * @return The number of events drained.
+     */
+    public int Drain(Batch batch)
+    {
+        batch.count = 0;
+        while (true)
+        {
+            int slot = (int)head & mask;
+            if (sequences.get(slot) != head + 1) { break; }
+
+            batch.Add(types[slot], codes[slot], xs[slot], ys[slot], times[slot]);
+
+            //Free the slot for the producers' next lap around the ring.
+            sequences.set(slot, head + mask + 1);
+            head++;
+        }
+
+        //Anything that overflowed came after everything in the ring.
+        if (overflowing)
+        {
+            synchronized (overflow)
+            {
+                for (int i=0; i<overflow.count; i++)
+                {
+                    batch.Add(overflow.types[i], overflow.codes[i], overflow.xs[i], overflow.ys[i], overflow.times[i]);
+                }
+                overflow.Clear();
+                overflowing = false;
+            }
+        }
+        return batch.count;
+    }
+
+    /**
+     * Returns the number of mouse movements dropped because the queue was full.
+     */
+    public long getDroppedCount() { return dropped.get(); }
+
+    /**
+     * Returns the most events the queue holds.
+     */
+    public int getCapacity() { return mask + 1; }
+
+    /**
+     * A batch of events drained from a queue, such as the events of one tick, stored field by field.
+     * Batches grow as needed, and are meant to be reused from tick to tick.
+     */
+    public static class Batch
+    {
+        //The fields of each event in the batch.
+        private int[] types = new int[64];
+        private int[] codes = new int[64];
+        private int[] xs = new int[64];
+        private int[] ys = new int[64];
+        private long[] times = new long[64];
+
+        //The number of events in the batch.
+        private int count = 0;
+
+        /**
+         * Adds an event to the end of the batch, growing it if it's full.
+         */
+        public void Add(int type, int code, int x, int y, long nanos)
+        {
+            if (count == types.length)
+            {
+                int size = count * 2;
+                types = Arrays.copyOf(types, size);
+                codes = Arrays.copyOf(codes, size);
+                xs = Arrays.copyOf(xs, size);
+                ys = Arrays.copyOf(ys, size);
+                times = Arrays.copyOf(times, size);
+            }
+            types[count] = type;
+            codes[count] = code;
+            xs[count] = x;
+            ys[count] = y;
+            times[count] = nanos;
+            count++;
+        }
+
+        /**
+         * Empties the batch.
+         */
+        public void Clear() { count = 0; }
+
+        /**
+         * Returns the number of events in the batch.
+         */
+        public int getCount() { return count; }
+
+        /**
+         * Returns the type of the event at the given index, one of the constants on InputEventQueue.
+         */
+        public int getType(int i) { return types[i]; }
+
+        /**
+         * Returns the key code or mouse button of the event at the given index.
+         */
+        public int getCode(int i) { return codes[i]; }
+
+        /**
+         * Returns the mouse X position of the event at the given index.
+         */
+        public int getX(int i) { return xs[i]; }
+
+        /**
+         * Returns the mouse Y position of the event at the given index.
+         */
+        public int getY(int i) { return ys[i]; }
+
+        /**
+         * Returns when the event at the given index happened, from System.nanoTime().
+         */
+        public long getNanos(int i) { return times[i]; }
+    }
+}
@@ -0,0 +1,111 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the input events of each tick of a scene to a file, so the run can be replayed exactly with InputReplay.
+ *
+ * A recording is laid out as:
+ * <ul>
+ *     <li>The magic number "GZIR", then the format version and tick rate (ints).</li>
+ *     <li>The player's starting position and angle (floats).</li>
+ *     <li>For each tick, the number of events in it (int), then each event's type (byte)
+ *     and key code or mouse button (unsigned short), followed by the mouse position (ints) for mouse events.</li>
+ * </ul>
+ * All values are big endian. Timestamps aren't recorded, as the simulation only sees which tick an event landed in.
+ * Key events with codes too big for a KeyStateTable (such as extended key codes) are left out,
+ * as the scene ignores them anyway and they don't fit in the code's unsigned short.
+ * Version 1 recordings wrote each tick's event count as an unsigned short, and are still read back by InputReplay.
+ */
+public class InputRecorder implements AutoCloseable {
+
+    //The magic number at the start of every recording, "GZIR".
+    static final int Magic = 0x475A4952;
+
+    //The current version of the recording format, and the oldest still read back.
+    static final int Version = 2;
+    static final int OldestVersion = 1;
+
+    //The file being written.
+    private final DataOutputStream output;
+
+    //The number of ticks recorded.
+    private long ticks = 0;
+
+    /**
+     * Starts a recording, overwriting the file if it exists.
+     * @param filePath The file to record to.
+     * @param tickRate The number of ticks per second of the scene being recorded.
+     * @param startX The player's starting X position, in world units.
+     * @param startY The player's starting Y position, in world units.
+     * @param startAngle The player's starting angle.
+     */
+    public InputRecorder(String filePath, int tickRate, float startX, float startY, float startAngle) throws IOException
+    {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)));
+        output.writeInt(Magic);
+        output.writeInt(Version);
+        output.writeInt(tickRate);
+        output.writeFloat(startX);
+        output.writeFloat(startY);
+        output.writeFloat(startAngle);
+    }
+
+    /**
+     * Records the events of a single tick.
+     */
+    public void Record(InputEventQueue.Batch batch) throws IOException
+    {
+        //Count the events that will be kept first, as the count comes before them.
+        int count = 0;
+        for (int i=0; i<batch.getCount(); i++)
+        {
+            if (isRecorded(batch, i)) { count++; }
+        }
+
+        output.writeInt(count);
+        for (int i=0, written=0; written<count; i++)
+        {
+            if (!isRecorded(batch, i)) { continue; }
+            written++;
+
+            int type = batch.getType(i);
+            output.writeByte(type);
+            output.writeShort(batch.getCode(i));
+            if (isMouseEvent(type))
+            {
+                output.writeInt(batch.getX(i));
+                output.writeInt(batch.getY(i));
+            }
+        }
+        ticks++;
+    }
+
+    /**
+     * Returns whether the event at the given index of a batch is recorded, which all but out of range key codes are.
+     */
+    private static boolean isRecorded(InputEventQueue.Batch batch, int i)
+    {
+        return isMouseEvent(batch.getType(i)) || (batch.getCode(i) >= 0 && batch.getCode(i) < KeyStateTable.DefaultCapacity);
+    }
+
+    /**
+     * Returns whether events of the given type carry a mouse position.
+     */
+    static boolean isMouseEvent(int type)
+    {
+        return type == InputEventQueue.MousePressed || type == InputEventQueue.MouseReleased || type == InputEventQueue.MouseMoved;
+    }
+
+    /**
+     * Returns the number of ticks recorded.
+     */
+    public long getTickCount() { return ticks; }
+
+    /**
+     * Finishes the recording, and closes the file.
+     */
+    @Override
+    public void close() throws IOException { output.close(); }
+}
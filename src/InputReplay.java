@@ -0,0 +1,99 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads back a recording made by InputRecorder, a tick of input events at a time.
+ * Feeding each tick's events to a scene in order (see GadzooksScene.Replay()) reproduces the recorded run exactly.
+ */
+public class InputReplay implements AutoCloseable {
+
+    //The file being read, and the version of the format it's in.
+    private final DataInputStream input;
+    private final int version;
+
+    //The tick rate and starting pose the recording was made with.
+    private final int tickRate;
+    private final float startX;
+    private final float startY;
+    private final float startAngle;
+
+    /**
+     * Opens a recording, reading its header.
+     * @param filePath The recording to open.
+     */
+    public InputReplay(String filePath) throws IOException
+    {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)));
+        try
+        {
+            if (input.readInt() != InputRecorder.Magic) { throw new IOException("'" + filePath + "' is not a Gadzooks input recording."); }
+            version = input.readInt();
+            if (version < InputRecorder.OldestVersion || version > InputRecorder.Version) { throw new IOException("Unsupported recording version " + version + " in '" + filePath + "'."); }
+            tickRate = input.readInt();
+            startX = input.readFloat();
+            startY = input.readFloat();
+            startAngle = input.readFloat();
+        }
+        catch (IOException e)
+        {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next tick's events into a batch, replacing what was in it.
+     * @return Whether there was another tick, false once the recording has ended.
+     */
+    public boolean Next(InputEventQueue.Batch batch) throws IOException
+    {
+        batch.Clear();
+        int count;
+        try { count = version == 1 ? input.readUnsignedShort() : input.readInt(); }
+        catch (EOFException e) { return false; }
+        if (count < 0) { throw new IOException("Recording has a tick with " + count + " events, it's corrupt."); }
+
+        for (int i=0; i<count; i++)
+        {
+            int type = input.readByte();
+            int code = input.readUnsignedShort();
+            int x = 0, y = 0;
+            if (InputRecorder.isMouseEvent(type))
+            {
+                x = input.readInt();
+                y = input.readInt();
+            }
+            batch.Add(type, code, x, y, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of ticks per second the recording was made at.
+     */
+    public int getTickRate() { return tickRate; }
+
+    /**
+     * Returns the player's starting X position, in world units.
+     */
+    public float getStartX() { return startX; }
+
+    /**
+     * Returns the player's starting Y position, in world units.
+     */
+    public float getStartY() { return startY; }
+
+    /**
+     * Returns the player's starting angle.
+     */
+    public float getStartAngle() { return startAngle; }
+
+    /**
+     * Closes the recording.
+     */
+    @Override
+    public void close() throws IOException { input.close(); }
+}
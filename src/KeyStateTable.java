@@ -0,0 +1,208 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The state of every key, written by the event thread and read by the game thread without locking or allocating.
+ * Each key has one atomic word holding how many times it's been pressed and released, counting only changes
+ * (so auto repeat doesn't count), which makes a key down whenever its counts differ.
+ * Since presses are counted rather than just flagged, a press and release between two reads is still seen,
+ * which Snapshot uses to give the simulation a consistent view of the keys for each tick.
+ */
+public class KeyStateTable {
+
+    /**
+     * The number of key codes a table covers by default, enough for every standard AWT virtual key code.
+     * Codes past the end (such as extended key codes) are ignored.
+     */
+    public static final int DefaultCapacity = 1 << 16;
+
+    //Each key's press count (high half) and release count (low half).
+    private final AtomicLongArray states;
+
+    //A bit for every key that's ever changed, so snapshots only copy those.
+    private final AtomicLongArray touched;
+
+    /**
+     * Creates a table covering key codes from 0 up to (but not including) the given capacity.
+     */
+    public KeyStateTable(int capacity)
+    {
+        states = new AtomicLongArray(capacity);
+        touched = new AtomicLongArray((capacity + 63) / 64);
+    }
+
+    /**
+     * Records a key being pressed. Does nothing if it's already down.
+     */
+    public void Press(int key)
+    {
+        if (key < 0 || key >= states.length()) { return; }
+        long state;
+        do
+        {
+            state = states.get(key);
+            if (isDown(state)) { return; }
+        } while (!states.compareAndSet(key, state, state + (1L << 32)));
+        Touch(key);
+    }
+
+    /**
+     * Records a key being released. Does nothing if it's already up.
+     */
+    public void Release(int key)
+    {
+        if (key < 0 || key >= states.length()) { return; }
+        long state;
+        do
+        {
+            state = states.get(key);
+            if (!isDown(state)) { return; }
+        } while (!states.compareAndSet(key, state, (state & 0xFFFFFFFF00000000L) | ((state + 1) & 0xFFFFFFFFL)));
+        Touch(key);
+    }
+
+    /**
+     * Marks a key as having changed.
+     */
+    private void Touch(int key)
+    {
+        long bit = 1L << (key & 63);
+        int word = key >>> 6;
+        long bits;
+        do
+        {
+            bits = touched.get(word);
+            if ((bits & bit) != 0) { return; }
+        } while (!touched.compareAndSet(word, bits, bits | bit));
+    }
+
+    /**
+     * Returns whether a key is currently down.
+     */
+    public boolean isDown(int key)
+    {
+        if (key < 0 || key >= states.length()) { return false; }
+        return isDown(states.get(key));
+    }
+
+    /**
+     * Returns the number of times a key has been pressed.
+     */
+    public int getPressCount(int key)
+    {
+        if (key < 0 || key >= states.length()) { return 0; }
+        return (int)(states.get(key) >>> 32);
+    }
+
+    /**
+     * Returns the number of times a key has been released.
+     */
+    public int getReleaseCount(int key)
+    {
+        if (key < 0 || key >= states.length()) { return 0; }
+        return (int)states.get(key);
+    }
+
+    /**
+     * Returns the number of key codes the table covers.
+     */
+    public int getCapacity() { return states.length(); }
+
+    /**
+     * Creates a snapshot of this table, empty until it's first updated.
+     */
+    public Snapshot CreateSnapshot() { return new Snapshot(this); }
+
+    /**
+     * Returns whether a key's state word has it down.
+     */
+    private static boolean isDown(long state)
+    {
+        return (int)(state >>> 32) != (int)state;
+    }
+
+    /**
+     * The state of the keys at one moment, along with what changed since the snapshot before it.
+     * Update it once per tick on the game thread, then read from it for the rest of the tick,
+     * so every read in a tick agrees and presses between ticks are never lost.
+     * Reads don't touch the table, and nothing allocates after it's created.
+     */
+    public static class Snapshot
+    {
+        //The table being captured.
+        private final KeyStateTable table;
+
+        //Each key's state word as of the last update, and the update before it.
+        private long[] current;
+        private long[] previous;
+
+        /**
+         * Creates a snapshot of the given table.
+         */
+        private Snapshot(KeyStateTable table_)
+        {
+            table = table_;
+            current = new long[table_.getCapacity()];
+            previous = new long[table_.getCapacity()];
+        }
+
+        /**
+         * Captures the table's current state, keeping the last capture to compare against.
+         */
+        public void Update()
+        {
+            long[] swap = previous;
+            previous = current;
+            current = swap;
+
+            //Only keys that have ever changed can be anything other than zero.
+            for (int word=0; word<table.touched.length(); word++)
+            {
+                long bits = table.touched.get(word);
+                while (bits != 0)
+                {
+                    int key = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    current[key] = table.states.get(key);
+                    bits &= bits - 1;
+                }
+            }
+        }
+
+        /**
+         * Returns whether a key was down when captured, or was pressed at some point since the last capture.
+         * So a key tapped between two captures still counts as down for one tick.
+         */
+        public boolean isDown(int key)
+        {
+            if (key < 0 || key >= current.length) { return false; }
+            return KeyStateTable.isDown(current[key]) || wasPressed(key);
+        }
+
+        /**
+         * Returns whether a key was pressed since the last capture.
+         */
+        public boolean wasPressed(int key) { return getPressCount(key) > 0; }
+
+        /**
+         * Returns whether a key was released since the last capture.
+         */
+        public boolean wasReleased(int key) { return getReleaseCount(key) > 0; }
+
+        /**
+         * Returns the number of times a key was pressed since the last capture.
+         */
+        public int getPressCount(int key)
+        {
+            if (key < 0 || key >= current.length) { return 0; }
+            return (int)(current[key] >>> 32) - (int)(previous[key] >>> 32);
+        }
+
+        /**
+         * Returns the number of times a key was released since the last capture.
+         */
+        public int getReleaseCount(int key)
+        {
+            if (key < 0 || key >= current.length) { return 0; }
+            return (int)current[key] - (int)previous[key];
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws a progress bar for an asset loader, over the whole screen.
+ * Add it to the arena while waiting on the loader, and remove it once the assets needed to start are in.
+ */
+public class LoadingScreen extends GadzookRenderer {
+
+    //The loader whose progress is shown.
+    private final AssetLoader loader;
+
+    //The size of the progress bar, in pixels.
+    private static final int BarWidth = 400;
+    private static final int BarHeight = 16;
+
+    //The colours drawn with.
+    private static final Color Background = Color.BLACK;
+    private static final Color Bar = Color.WHITE;
+    private static final Color Text = Color.LIGHT_GRAY;
+
+    /**
+     * Creates a loading screen showing the progress of the given loader, drawn over every other renderer.
+     */
+    public LoadingScreen(AssetLoader loader_)
+    {
+        loader = loader_;
+        RenderPriority = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Draws the progress of the loader in the middle of the screen.
+     */
+    @Override
+    public void Draw(Graphics graphics, BufferedImage image)
+    {
+        graphics.setColor(Background);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+        //Outline the bar, and fill it in as far as the loader's got.
+        int x = (image.getWidth() - BarWidth) / 2;
+        int y = (image.getHeight() - BarHeight) / 2;
+        graphics.setColor(Bar);
+        graphics.drawRect(x, y, BarWidth, BarHeight);
+        graphics.fillRect(x + 2, y + 2, (int)((BarWidth - 3) * loader.getProgress()), BarHeight - 3);
+
+        graphics.setColor(Text);
+        graphics.drawString("Loading " + loader.getFinishedCount() + " / " + loader.getQueuedCount(), x, y - 8);
+    }
+}
@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 /**
  * Represents a single cell inside the raycast map.
  */
@@ -16,8 +18,9 @@ public class MapCell {
     //The type of cell this is.
     MapCellType type;
 
-    //The texture of this cell.
+    //The texture of this cell, and its id in the shared texture registry (NoTexture if it didn't come from there).
     GadzookTexture texture;
+    int textureId = TextureRegistry.NoTexture;
 
     /**
      * Constructor for a standard map cell.
@@ -29,6 +32,22 @@ public class MapCell {
         texture = tex;
     }
 
+    /**
+     * Constructor for a map cell using a texture from the shared texture registry.
+     * The texture is looked up once here, so drawing the cell never goes through the registry.
+     */
+    public MapCell(MapCellType type_, int textureId_) throws IOException
+    {
+        type = type_;
+        textureId = textureId_;
+        texture = TextureRegistry.getShared().getTexture(textureId_);
+    }
+
+    /**
+     * Returns the id of this cell's texture in the shared texture registry, or NoTexture if it didn't come from there.
+     */
+    public int getTextureId() { return textureId; }
+
     /**
      * Returns the sprite texture of this cell.
      */
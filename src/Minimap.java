@@ -0,0 +1,184 @@
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws the top down view of the map, with the player and the rays cast from them.
+ * The walls are rasterised once into a cached opaque image (so drawing it is a plain copy) and only rebuilt
+ * when the map changes, and the rays are filled in as a single fan polygon rather than drawn line by line.
+ * Maps too big for the view are scrolled to follow the player, caching just the area around the view rather than the whole map.
+ */
+public class Minimap {
+
+    //The size of a map cell on the minimap, in pixels.
+    private int scale;
+
+    //The walls of part of the map, a cell per scale pixels, and the cells it covers.
+    private BufferedImage cache;
+    private int[] cachePixels;
+    private int cacheX, cacheY;
+    private int cacheWidth, cacheHeight;
+
+    //The map, revision and scale the cache was built from.
+    private GadzookMap cachedMap;
+    private int cachedRevision;
+    private int cachedScale;
+
+    //The polygon the ray fan is built up in, reused from frame to frame.
+    private final Path2D.Float rays = new Path2D.Float();
+
+    //The colours of the minimap.
+    private static final int WallColour = Color.WHITE.getRGB();
+    private static final int FloorColour = Color.BLACK.getRGB();
+    private static final Color PlayerColour = Color.CYAN;
+    private static final Color RayColour = Color.RED;
+
+    /**
+     * Creates a minimap which draws map cells at the given size, in pixels.
+     */
+    public Minimap(int scale_)
+    {
+        scale = scale_;
+    }
+
+    /**
+     * Sets the size map cells are drawn at, in pixels.
+     */
+    public void setScale(int scale_) { scale = Math.max(1, scale_); }
+
+    /**
+     * Returns the size map cells are drawn at, in pixels.
+     */
+    public int getScale() { return scale; }
+
+    /**
+     * Returns the width the minimap of a map is drawn at, given the most room there is for it.
+     */
+    public int getViewWidth(GadzookMap map, int maxWidth) { return Math.min(map.getWidth() * scale, maxWidth); }
+
+    /**
+     * Returns the height the minimap of a map is drawn at, given the most room there is for it.
+     */
+    public int getViewHeight(GadzookMap map, int maxHeight) { return Math.min(map.getHeight() * scale, maxHeight); }
+
+    /**
+     * Throws away the cached walls, so they're rebuilt next draw.
+     */
+    public void Invalidate() { cachedMap = null; }
+
+    /**
+     * Draws the minimap in the top left, centred on the player if the map is too big to fit.
+     * @param graphics The graphics instance to draw with.
+     * @param map The map to draw.
+     * @param maxWidth The most room across there is for the minimap, in pixels.
+     * @param maxHeight The most room down there is for the minimap, in pixels.
+     * @param unitSize The size of a map cell in world units.
+     * @param playerX The X position of the player, in world units.
+     * @param playerY The Y position of the player, in world units.
+     * @param viewX The X component of the player's view direction.
+     * @param viewY The Y component of the player's view direction.
+     * @param hits The rays cast this frame, their hit points in world units.
+     */
+    public void Draw(Graphics graphics, GadzookMap map, int maxWidth, int maxHeight, int unitSize,
+                     float playerX, float playerY, float viewX, float viewY, RayHitBuffer hits)
+    {
+        //Work out which part of the map is in view, in minimap pixels, keeping the player in the middle where we can.
+        int viewWidth = getViewWidth(map, maxWidth);
+        int viewHeight = getViewHeight(map, maxHeight);
+        float pixelsPerUnit = scale / (float)unitSize;
+        int originX = Clamp((int)(playerX * pixelsPerUnit) - viewWidth / 2, 0, map.getWidth() * scale - viewWidth);
+        int originY = Clamp((int)(playerY * pixelsPerUnit) - viewHeight / 2, 0, map.getHeight() * scale - viewHeight);
+
+        //Draw the walls from the cache, rebuilding it if it's stale or doesn't cover the view.
+        int firstX = originX / scale, firstY = originY / scale;
+        int lastX = (originX + viewWidth - 1) / scale, lastY = (originY + viewHeight - 1) / scale;
+        if (map != cachedMap || map.getRevision() != cachedRevision || scale != cachedScale
+                || firstX < cacheX || firstY < cacheY || lastX >= cacheX + cacheWidth || lastY >= cacheY + cacheHeight)
+        {
+            Rebuild(map, firstX, firstY, lastX, lastY, viewWidth, viewHeight);
+        }
+        int sourceX = originX - cacheX * scale;
+        int sourceY = originY - cacheY * scale;
+        graphics.drawImage(cache, 0, 0, viewWidth, viewHeight, sourceX, sourceY, sourceX + viewWidth, sourceY + viewHeight, null);
+
+        //Fill in the rays as one polygon, fanning out from the player through each point a ray hit.
+        //The rays sweep across the view in order, so their hit points trace the fan's outer edge.
+        float startX = playerX * pixelsPerUnit - originX + 4;
+        float startY = playerY * pixelsPerUnit - originY + 4;
+        rays.reset();
+        rays.moveTo(startX, startY);
+        for (int i=0; i<hits.getSize(); i++)
+        {
+            rays.lineTo(hits.hitX[i] * pixelsPerUnit - originX, hits.hitY[i] * pixelsPerUnit - originY);
+        }
+        rays.closePath();
+
+        //The minimap is all hard edges, so antialiasing it costs a lot for little difference.
+        Graphics2D graphics2D = (Graphics2D)graphics;
+        Object oldAntialiasing = graphics2D.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        graphics2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        Shape oldClip = graphics.getClip();
+        graphics.clipRect(0, 0, viewWidth, viewHeight);
+        graphics.setColor(RayColour);
+        graphics2D.fill(rays);
+
+        //Draw the player on top.
+        int x = (int)(startX - 4), y = (int)(startY - 4);
+        graphics.setColor(PlayerColour);
+        graphics.fillRect(x, y, 8, 8);
+        graphics.drawLine(x + 4, y + 4, (int)(x + viewX * 20), (int)(y + viewY * 20));
+        graphics.setClip(oldClip);
+        graphics2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING, oldAntialiasing);
+    }
+
+    /**
+     * Rasterises the walls around a range of cells into the cache.
+     * Half a view's worth of cells either side are included, so the player can move a little before it's rebuilt.
+     */
+    private void Rebuild(GadzookMap map, int firstX, int firstY, int lastX, int lastY, int viewWidth, int viewHeight)
+    {
+        int marginX = viewWidth / scale / 2 + 1, marginY = viewHeight / scale / 2 + 1;
+        cacheX = Math.max(0, firstX - marginX);
+        cacheY = Math.max(0, firstY - marginY);
+        cacheWidth = Math.min(map.getWidth(), lastX + marginX + 1) - cacheX;
+        cacheHeight = Math.min(map.getHeight(), lastY + marginY + 1) - cacheY;
+
+        //Reuse the image if it's the right size, clearing it back to the floor.
+        int width = cacheWidth * scale, height = cacheHeight * scale;
+        if (cache == null || cache.getWidth() != width || cache.getHeight() != height)
+        {
+            cache = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            cachePixels = ((DataBufferInt)cache.getRaster().getDataBuffer()).getData();
+        }
+        Arrays.fill(cachePixels, FloorColour);
+
+        //Fill in each wall, leaving a gap on its top and left so neighbouring walls can be told apart.
+        int gap = scale / 16;
+        for (int cy=0; cy<cacheHeight; cy++)
+        {
+            for (int cx=0; cx<cacheWidth; cx++)
+            {
+                if (!map.isSolid(cacheX + cx, cacheY + cy)) { continue; }
+                int left = cx * scale + gap, right = (cx + 1) * scale;
+                for (int row = cy * scale + gap; row < (cy + 1) * scale; row++)
+                {
+                    Arrays.fill(cachePixels, row * width + left, row * width + right, WallColour);
+                }
+            }
+        }
+
+        cachedMap = map;
+        cachedRevision = map.getRevision();
+        cachedScale = scale;
+    }
+
+    /**
+     * Clamps a value between a minimum and maximum.
+     */
+    private static int Clamp(int value, int min, int max)
+    {
+        return Math.max(min, Math.min(max, value));
+    }
+}
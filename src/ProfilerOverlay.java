@@ -0,0 +1,145 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Draws the stats of a frame profiler over the top of the screen.
+ * Hidden by default, toggle it with Toggle() (the scene binds this to F3).
+ * The text is only rebuilt a few times a second, so it can be read and doesn't add to the frames it's measuring,
+ * and the overlay is drawn into a retained layer, so in between it's only composited.
+ */
+public class ProfilerOverlay extends GadzookRenderer {
+
+    //How often the text is rebuilt, in nanoseconds.
+    private static final long RefreshNanos = 250_000_000;
+
+    //The profiler being shown.
+    private final FrameProfiler profiler;
+
+    //Whether the overlay is drawn, and whether it was the last time it was drawn.
+    private volatile boolean visible = false;
+    private boolean shown = false;
+
+    //The lines of text currently shown, and when they were built.
+    private String[] lines = new String[0];
+    private long builtAt = 0;
+
+    //The box last drawn, and the metrics of the font it was drawn with (null before the first draw).
+    private int boxX, boxY, boxWidth, boxHeight;
+    private FontMetrics metrics;
+
+    //The colours drawn with.
+    private static final Color Background = new Color(0, 0, 0, 160);
+    private static final Color Text = Color.GREEN;
+    private static final Font TextFont = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+    /**
+     * Creates an overlay showing the given profiler, drawn after every other renderer.
+     */
+    public ProfilerOverlay(FrameProfiler profiler_)
+    {
+        profiler = profiler_;
+        RenderPriority = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Shows or hides the overlay.
+     */
+    public void setVisible(boolean visible_) { visible = visible_; }
+
+    /**
+     * Returns whether the overlay is shown.
+     */
+    public boolean isVisible() { return visible; }
+
+    /**
+     * Shows the overlay if it's hidden, hides it otherwise.
+     */
+    public void Toggle() { visible = !visible; }
+
+    /**
+     * The overlay is drawn into its own layer, and only redrawn when its text changes.
+     */
+    @Override
+    public boolean isRetained() { return true; }
+
+    /**
+     * Adds the box the overlay was last drawn in, and the box it'll be drawn in next, when the text is stale or it's been toggled.
+     */
+    @Override
+    public void AddDamage(DamageRegion damage, int width, int height)
+    {
+        if (visible == shown && !(visible && isStale())) { return; }
+
+        //Clear what was drawn last time.
+        damage.Add(boxX, boxY, boxWidth, boxHeight);
+        if (!visible) { return; }
+
+        //Rebuild the text now, so the new box is known. It can't be measured before the first draw.
+        if (metrics == null) { damage.AddAll(); return; }
+        Rebuild();
+        MeasureBox(width);
+        damage.Add(boxX, boxY, boxWidth, boxHeight);
+    }
+
+    /**
+     * Draws the profiler's stats, if the overlay is shown.
+     */
+    @Override
+    public void Draw(Graphics graphics, BufferedImage image)
+    {
+        shown = visible;
+        if (!visible) { return; }
+
+        //Rebuild the text if it's stale.
+        graphics.setFont(TextFont);
+        metrics = graphics.getFontMetrics();
+        if (isStale()) { Rebuild(); }
+
+        //Draw it in the top right, over a dark box so it can be read over the scene.
+        MeasureBox(image.getWidth());
+        graphics.setColor(Background);
+        graphics.fillRect(boxX, boxY, boxWidth, boxHeight);
+        graphics.setColor(Text);
+        for (int i=0; i<lines.length; i++)
+        {
+            graphics.drawString(lines[i], boxX + 8, boxY + 4 + metrics.getAscent() + i * metrics.getHeight());
+        }
+    }
+
+    /**
+     * Returns whether the text is due to be rebuilt.
+     */
+    private boolean isStale()
+    {
+        return System.nanoTime() - builtAt > RefreshNanos;
+    }
+
+    /**
+     * Works out the box the current text is drawn in, in the top right of an image of the given width.
+     */
+    private void MeasureBox(int imageWidth)
+    {
+        int width = 0;
+        for (String line : lines) { width = Math.max(width, metrics.stringWidth(line)); }
+        boxWidth = width + 16;
+        boxHeight = metrics.getHeight() * lines.length + 8;
+        boxX = imageWidth - boxWidth - 8;
+        boxY = 8;
+    }
+
+    /**
+     * Builds the lines of text shown from the profiler's current stats.
+     */
+    private void Rebuild()
+    {
+        builtAt = System.nanoTime();
+        String[] phases = profiler.getPhaseSummary();
+        double allocationRate = profiler.getAllocationRateMBPerSecond();
+
+        lines = new String[phases.length + 2];
+        lines[0] = String.format("Frame    p50 %6.2fms  p95 %6.2fms  p99 %6.2fms",
+                profiler.getFrameTimeP50Ms(), profiler.getFrameTimeP95Ms(), profiler.getFrameTimeP99Ms());
+        System.arraycopy(phases, 0, lines, 1, phases.length);
+        lines[lines.length - 1] = allocationRate < 0 ? "Alloc    unavailable" : String.format("Alloc    %.2f MB/s", allocationRate);
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * A reusable buffer holding the results of a frame's rays, one slot per screen column.
+ * Results are stored as parallel primitive arrays and filled in place, so casting a frame allocates nothing.
+ */
+public class RayHitBuffer {
+
+    /**
+     * The side value for a ray that hit the horizontal side of a grid square.
+     */
+    public static final byte SideHorizontal = 0;
+
+    /**
+     * The side value for a ray that hit the vertical side of a grid square.
+     */
+    public static final byte SideVertical = 1;
+
+    /**
+     * The side value for a ray that didn't hit a wall.
+     */
+    public static final byte SideNone = -1;
+
+    //The distance along each ray to its hit, Float.MAX_VALUE for a miss.
+    public float[] distance;
+
+    //The world space angle of each ray.
+    public float[] angle;
+
+    //The side of the grid square each ray hit.
+    public byte[] side;
+
+    //The map cell each ray stopped in.
+    public int[] cellX;
+    public int[] cellY;
+
+    //The horizontal texture coordinate (0 to 1) of each hit, already flipped to match the wall's facing.
+    public float[] texU;
+
+    //The world position each ray stopped at.
+    public float[] hitX;
+    public float[] hitY;
+
+    //The first row of each column's wall on screen, and the first row below it, filled in when the walls are drawn.
+    //Columns with no wall drawn have both at the horizon.
+    public int[] wallTop;
+    public int[] wallBottom;
+
+    /**
+     * Creates a buffer with room for the given number of rays.
+     */
+    public RayHitBuffer(int size)
+    {
+        Resize(size);
+    }
+
+    /**
+     * Returns the number of rays this buffer has room for.
+     */
+    public int getSize() { return distance.length; }
+
+    /**
+     * Resizes the buffer to hold the given number of rays, if it doesn't already.
+     * Existing results are discarded when the size changes.
+     */
+    public void Resize(int size)
+    {
+        if (distance != null && distance.length == size) { return; }
+        distance = new float[size];
+        angle = new float[size];
+        side = new byte[size];
+        cellX = new int[size];
+        cellY = new int[size];
+        texU = new float[size];
+        hitX = new float[size];
+        hitY = new float[size];
+        wallTop = new int[size];
+        wallBottom = new int[size];
+    }
+
+    /**
+     * Returns whether the ray in the given slot hit a wall.
+     */
+    public boolean isHit(int index) { return side[index] != SideNone; }
+}
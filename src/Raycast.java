@@ -8,6 +8,11 @@ public class Raycast {
     public float Angle;
     public boolean IsVerticalHit;
 
+    //The map cell the ray stopped in, and whether that cell was a wall.
+    public int CellX;
+    public int CellY;
+    public boolean IsHit;
+
     //The destination and source of the ray.
     public Vector2f Destination;
     public Vector2f Source;
@@ -27,5 +32,25 @@ public class Raycast {
         Distance = dist;
         Angle = angle;
         IsVerticalHit = verticalHit;
+        IsHit = true;
+    }
+
+    /**
+     * Creates a single ray, given the ray vector, distance from start point and the map cell it stopped in.
+     * @param source The source of the ray.
+     * @param dest The destination of the ray.
+     * @param dist The distance from the source of the ray to the endpoint.
+     * @param angle The world space angle of the ray.
+     * @param verticalHit Whether this ray hit the vertical side of a grid square or not. Used for lighting calculation.
+     * @param cellX The X coordinate of the map cell the ray stopped in.
+     * @param cellY The Y coordinate of the map cell the ray stopped in.
+     * @param hit Whether the ray stopped on a wall, rather than leaving the map or running out of depth.
+     */
+    public Raycast(Vector2f source, Vector2f dest, float dist, float angle, boolean verticalHit, int cellX, int cellY, boolean hit)
+    {
+        this(source, dest, dist, angle, verticalHit);
+        CellX = cellX;
+        CellY = cellY;
+        IsHit = hit;
     }
 }
@@ -0,0 +1,54 @@
+/**
+ * An immutable snapshot of the player's pose published by the simulation for the renderer.
+ * Holds both the pose before and after a tick, so the renderer can interpolate between them
+ * while the simulation works on the next one.
+ */
+public final class SceneSnapshot {
+
+    //The player's position and facing before the tick.
+    public final float PreviousX;
+    public final float PreviousY;
+    public final float PreviousAngle;
+    public final float PreviousDirX;
+    public final float PreviousDirY;
+
+    //The player's position and facing after the tick.
+    public final float X;
+    public final float Y;
+    public final float Angle;
+    public final float DirX;
+    public final float DirY;
+
+    //When the snapshot was published (from System.nanoTime()), and the length of a tick, in nanoseconds.
+    public final long PublishedNanos;
+    public final long TickNanos;
+
+    /**
+     * Creates a snapshot of the player's pose either side of a tick.
+     */
+    public SceneSnapshot(float previousX, float previousY, float previousAngle, float x, float y, float angle, long publishedNanos, long tickNanos)
+    {
+        PreviousX = previousX;
+        PreviousY = previousY;
+        PreviousAngle = previousAngle;
+        PreviousDirX = (float)Math.cos(previousAngle);
+        PreviousDirY = (float)Math.sin(previousAngle);
+        X = x;
+        Y = y;
+        Angle = angle;
+        DirX = (float)Math.cos(angle);
+        DirY = (float)Math.sin(angle);
+        PublishedNanos = publishedNanos;
+        TickNanos = tickNanos;
+    }
+
+    /**
+     * Returns how far (0 to 1) the given time is from the previous pose to the current one.
+     * The current pose is reached one tick after the snapshot was published.
+     */
+    public float getAlpha(long nowNanos)
+    {
+        float alpha = (nowNanos - PublishedNanos) / (float)TickNanos;
+        return Math.max(0, Math.min(1, alpha));
+    }
+}
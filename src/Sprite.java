@@ -21,11 +21,11 @@ public class Sprite extends GameObject {
     //The size (square) of each screen-pixel on this sprite.
     float scale;
 
-    //The base image of this sprite.
-    BufferedImage baseImage;
+    //The base image of this sprite, which may be shared with other sprites through the texture registry, so is only read from.
+    private BufferedImage baseImage;
 
-    //The current animation frame of this sprite.
-    BufferedImage frameImage;
+    //The current animation frame of this sprite, a view into the base image.
+    private BufferedImage frameImage;
 
     //The scaled version of this sprite.
     BufferedImage image;
@@ -60,7 +60,7 @@ public class Sprite extends GameObject {
      * @param anchor_ The anchor position of the sprite (where the pivot is).
      */
     public Sprite(String filePath, float scale_, SpriteAnchor anchor_) throws IOException {
-        this(ImageIO.read(new File(filePath)), scale_, anchor_);
+        this(TextureRegistry.getShared().LoadSharedImage(filePath), scale_, anchor_);
     }
 
     /**
@@ -272,7 +272,8 @@ public class Sprite extends GameObject {
     }
 
     /**
-     * Returns the current image assigned to this sprite.
+     * Returns the current image assigned to this sprite, scaled to its size.
+     * The sprite has its own copy, so drawing on it doesn't affect other sprites made from the same file.
      */
     public BufferedImage GetImage() {
         return image;
@@ -0,0 +1,171 @@
+/**
+ * A uniform grid of buckets holding world sprites by position, so the sprites near the camera can be found
+ * without looking at every sprite. Each bucket is a packed array, and sprites remember their slot in it,
+ * so adding, removing and moving a sprite are all constant time.
+ * Sprites outside of the grid are kept in the nearest edge bucket.
+ * All methods lock the grid, so sprites can be moved on one thread while they're drawn on another.
+ */
+public class SpriteGrid {
+
+    //The size of a bucket along each side, in world units.
+    private final float bucketSize;
+
+    //The number of buckets across and down the grid.
+    private final int bucketsX;
+    private final int bucketsY;
+
+    //The sprites in each bucket, and how many there are.
+    private final WorldSprite[][] buckets;
+    private final int[] counts;
+
+    //The number of sprites in the grid, and the size of the biggest one ever added.
+    private int size = 0;
+    private float maxSpriteSize = 0;
+
+    /**
+     * Creates a grid covering the given area, from the origin.
+     * @param width The width of the area, in world units.
+     * @param height The height of the area, in world units.
+     * @param bucketSize_ The size of a bucket along each side, in world units.
+     */
+    public SpriteGrid(float width, float height, float bucketSize_)
+    {
+        bucketSize = bucketSize_;
+        bucketsX = Math.max(1, (int)Math.ceil(width / bucketSize_));
+        bucketsY = Math.max(1, (int)Math.ceil(height / bucketSize_));
+        buckets = new WorldSprite[bucketsX * bucketsY][];
+        counts = new int[bucketsX * bucketsY];
+    }
+
+    /**
+     * Returns the bucket column or row holding a position along one axis, clamped to the grid.
+     */
+    private int BucketAlong(float position, int buckets)
+    {
+        return Math.max(0, Math.min(buckets - 1, (int)Math.floor(position / bucketSize)));
+    }
+
+    /**
+     * Returns the index of the bucket holding a position.
+     */
+    private int BucketAt(float x, float y)
+    {
+        return BucketAlong(y, bucketsY) * bucketsX + BucketAlong(x, bucketsX);
+    }
+
+    /**
+     * Adds a sprite to the grid at its current position.
+     */
+    public synchronized void Add(WorldSprite sprite)
+    {
+        if (sprite.bucket != -1) { throw new IllegalArgumentException("The sprite is already in a grid."); }
+        Insert(sprite, BucketAt(sprite.x, sprite.y));
+        size++;
+        maxSpriteSize = Math.max(maxSpriteSize, sprite.size);
+    }
+
+    /**
+     * Removes a sprite from the grid.
+     */
+    public synchronized void Remove(WorldSprite sprite)
+    {
+        if (sprite.bucket == -1) { return; }
+        Detach(sprite);
+        size--;
+    }
+
+    /**
+     * Moves a sprite in the grid to a new position, in world units.
+     */
+    public synchronized void Move(WorldSprite sprite, float x, float y)
+    {
+        sprite.x = x;
+        sprite.y = y;
+        if (sprite.bucket == -1) { return; }
+
+        //Only move buckets when it's crossed into a new one.
+        int bucket = BucketAt(x, y);
+        if (bucket == sprite.bucket) { return; }
+        Detach(sprite);
+        Insert(sprite, bucket);
+    }
+
+    /**
+     * Adds a sprite to the end of a bucket, growing the bucket if it's full.
+     */
+    private void Insert(WorldSprite sprite, int bucket)
+    {
+        WorldSprite[] slots = buckets[bucket];
+        if (slots == null) { slots = buckets[bucket] = new WorldSprite[4]; }
+        else if (counts[bucket] == slots.length)
+        {
+            WorldSprite[] grown = new WorldSprite[slots.length * 2];
+            System.arraycopy(slots, 0, grown, 0, slots.length);
+            slots = buckets[bucket] = grown;
+        }
+
+        sprite.bucket = bucket;
+        sprite.slot = counts[bucket];
+        slots[counts[bucket]++] = sprite;
+    }
+
+    /**
+     * Takes a sprite out of its bucket, moving the bucket's last sprite into its slot.
+     */
+    private void Detach(WorldSprite sprite)
+    {
+        WorldSprite[] slots = buckets[sprite.bucket];
+        int last = --counts[sprite.bucket];
+        slots[sprite.slot] = slots[last];
+        slots[sprite.slot].slot = sprite.slot;
+        slots[last] = null;
+        sprite.bucket = -1;
+        sprite.slot = -1;
+    }
+
+    /**
+     * Finds the sprites in every bucket touching an area, in world units.
+     * Callers wanting the sprites' positions to stay put while they read them should hold the lock on the grid.
+     * @param out The array to put the sprites in, grown (and returned) if it's too small.
+     * @return The array the sprites were put in, with a null after the last sprite found if there's room.
+     */
+    public synchronized WorldSprite[] Query(float minX, float minY, float maxX, float maxY, WorldSprite[] out)
+    {
+        int count = 0;
+        int fromX = BucketAlong(minX, bucketsX), toX = BucketAlong(maxX, bucketsX);
+        int fromY = BucketAlong(minY, bucketsY), toY = BucketAlong(maxY, bucketsY);
+        for (int by=fromY; by<=toY; by++)
+        {
+            for (int bx=fromX; bx<=toX; bx++)
+            {
+                int bucket = by * bucketsX + bx;
+                int bucketCount = counts[bucket];
+                if (bucketCount == 0) { continue; }
+
+                //Make room, then copy the whole bucket in.
+                if (count + bucketCount > out.length)
+                {
+                    WorldSprite[] grown = new WorldSprite[Math.max(out.length * 2, count + bucketCount)];
+                    System.arraycopy(out, 0, grown, 0, count);
+                    out = grown;
+                }
+                System.arraycopy(buckets[bucket], 0, out, count, bucketCount);
+                count += bucketCount;
+            }
+        }
+
+        if (count < out.length) { out[count] = null; }
+        return out;
+    }
+
+    /**
+     * Returns the size of the biggest sprite ever added, in world units.
+     * Sprites are bucketed by their centre, so queries should reach out by half of this to catch sprites overlapping their area.
+     */
+    public synchronized float getMaxSpriteSize() { return maxSpriteSize; }
+
+    /**
+     * Returns the number of sprites in the grid.
+     */
+    public synchronized int getSize() { return size; }
+}
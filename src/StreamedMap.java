@@ -0,0 +1,375 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Represents a map too big to keep resident, split into square chunks that are streamed in from a chunked map file.
+ * Chunks around the player are loaded on demand by a background thread, and the least recently wanted chunks
+ * are evicted once the resident chunks go over a memory budget.
+ * Cells in chunks that aren't resident read as a configurable boundary cell.
+ * Streamed maps are read only.
+ */
+public class StreamedMap extends GadzookMap {
+
+    //The file the chunks are read from, and where the first chunk starts in it.
+    private final FileChannel channel;
+    private final long chunksStart;
+
+    //The size of a chunk along each side (a power of two), and the shift and mask for it.
+    private final int chunkSize;
+    private final int chunkShift;
+    private final int chunkMask;
+
+    //The number of chunks across and down the map.
+    private final int chunksX;
+    private final int chunksY;
+
+    //The cells of each chunk that is resident, null otherwise.
+    private final AtomicReferenceArray<byte[]> resident;
+
+    //The tick each chunk was last wanted on, and whether each chunk is queued for loading.
+    //Only touched by the thread calling Update() and the loader, under the lock on this map.
+    private final long[] lastWanted;
+    private final boolean[] queued;
+
+    //The resident chunks, least recently wanted (or loaded) first, and the most that may be resident.
+    //Only touched under the lock on this map.
+    private final LinkedHashMap<Integer, Boolean> residentOrder = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxResident;
+
+    //How many chunks out from the player's chunk are kept loaded.
+    private int loadRadius = 2;
+
+    //The current tick, counted by Update().
+    private long tick = 0;
+
+    //Whether each definition id is solid, and the id read for cells in chunks that aren't resident.
+    private final boolean[] solidById = new boolean[MaxDefinitions];
+
+    //The number of definitions in the file, which every cell read from it must refer to one of.
+    private final int fileDefinitionCount;
+    private volatile int boundaryId;
+
+    //The chunks waiting to be loaded, and the thread loading them.
+    private final LinkedBlockingQueue<Integer> loadQueue = new LinkedBlockingQueue<>();
+    private final Thread loader;
+
+    //Queued to wake the loader up when closing, as it isn't a chunk.
+    private static final int StopLoader = -1;
+
+    //Whether the map has been closed, and whether a chunk has failed to load yet (only the first failure is logged).
+    private volatile boolean closed = false;
+    private boolean reportedFailure = false;
+
+    //Whether Update() loads chunks on the calling thread rather than queueing them for the loader.
+    private volatile boolean synchronous = false;
+
+    /**
+     * Creates a streamed map over the chunks of an open chunked map file.
+     * @param width_ The width of the map, in cells.
+     * @param height_ The height of the map, in cells.
+     * @param definitions_ The cell definitions, indexed by id.
+     * @param channel_ The open map file, owned by this map from now on.
+     * @param chunksStart_ The offset in the file of the first chunk.
+     * @param chunkSize_ The size of a chunk along each side, must be a power of two.
+     * @param memoryBudget The most bytes of chunk cells to keep resident at once.
+     */
+    public StreamedMap(int width_, int height_, MapCell[] definitions_, FileChannel channel_, long chunksStart_, int chunkSize_, long memoryBudget)
+    {
+        super(width_, height_, definitions_);
+        fileDefinitionCount = definitions_.length;
+        if (Integer.bitCount(chunkSize_) != 1) { throw new IllegalArgumentException("Chunk size must be a power of two."); }
+
+        channel = channel_;
+        chunksStart = chunksStart_;
+        chunkSize = chunkSize_;
+        chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        chunkMask = chunkSize - 1;
+        chunksX = (width_ + chunkMask) >> chunkShift;
+        chunksY = (height_ + chunkMask) >> chunkShift;
+
+        resident = new AtomicReferenceArray<>(chunksX * chunksY);
+        lastWanted = new long[chunksX * chunksY];
+        queued = new boolean[chunksX * chunksY];
+        maxResident = (int)Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / ((long)chunkSize * chunkSize)));
+
+        //Work out which definitions are solid, non-resident chunks default to reading as a plain wall.
+        for (int i=0; i<getDefinitionCount(); i++)
+        {
+            solidById[i] = isSolidType(getDefinition(i).getType());
+        }
+        setBoundary(MapCell.Wall);
+
+        //Start the loader.
+        loader = new Thread(this::LoaderLoop, "gadzooks-chunk-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Sets the cell read for cells in chunks that aren't resident.
+     * A solid boundary stops rays at the edge of the loaded area, an empty one lets them pass through.
+     */
+    public void setBoundary(MapCell cell)
+    {
+        int id = Define(cell);
+        solidById[id] = isSolidType(cell.getType());
+        boundaryId = id;
+    }
+
+    /**
+     * Sets how many chunks out from the player's chunk are kept loaded.
+     * The radius is clamped so every chunk around the player fits in the memory budget at once.
+     */
+    public synchronized void setLoadRadius(int radius) { loadRadius = radius; }
+
+    /**
+     * Returns how many chunks out from the player's chunk are actually loaded,
+     * the load radius clamped so the whole square of chunks fits in the budget.
+     * Must be called while holding the lock on this map.
+     */
+    private int getEffectiveLoadRadius()
+    {
+        int radius = loadRadius;
+        while (radius > 0 && (2L * radius + 1) * (2L * radius + 1) > maxResident) { radius--; }
+        return radius;
+    }
+
+    /**
+     * Sets whether Update() loads the chunks around the player straight away on the calling thread,
+     * rather than in the background. Slower, but which cells are resident then only depends on where the player has been,
+     * not on how quickly the loader kept up, so replays come out the same every time.
+     */
+    public synchronized void setSynchronous(boolean synchronous_) { synchronous = synchronous_; }
+
+    /**
+     * Returns the size of a chunk along each side, in cells.
+     */
+    public int getChunkSize() { return chunkSize; }
+
+    /**
+     * Returns the number of chunks currently resident.
+     */
+    public synchronized int getResidentCount() { return residentOrder.size(); }
+
+    /**
+     * Queues the chunks around the player for loading, nearest first, and marks them as wanted.
+     * When synchronous, they're loaded straight away instead.
+     * @param x The X position of the player, in cells.
+     * @param y The Y position of the player, in cells.
+     */
+    @Override
+    public void Update(float x, float y)
+    {
+        int centreX = (int)x >> chunkShift;
+        int centreY = (int)y >> chunkShift;
+
+        synchronized (this)
+        {
+            tick++;
+
+            //Walk out from the player's chunk one ring at a time.
+            int radius = getEffectiveLoadRadius();
+            for (int ring=0; ring<=radius; ring++)
+            {
+                for (int cy=centreY-ring; cy<=centreY+ring; cy++)
+                {
+                    for (int cx=centreX-ring; cx<=centreX+ring; cx++)
+                    {
+                        //Only the edge of each ring is new.
+                        if (Math.abs(cx - centreX) != ring && Math.abs(cy - centreY) != ring) { continue; }
+                        if (cx < 0 || cy < 0 || cx >= chunksX || cy >= chunksY) { continue; }
+
+                        int chunk = cy * chunksX + cx;
+                        lastWanted[chunk] = tick;
+                        if (resident.get(chunk) != null) { residentOrder.get(chunk); }
+                        else if (!queued[chunk] && !synchronous)
+                        {
+                            queued[chunk] = true;
+                            loadQueue.add(chunk);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (synchronous)
+        {
+            try { LoadWindow(centreX, centreY); }
+            catch (IOException e) { ReportFailure(e); }
+        }
+    }
+
+    /**
+     * Loads the chunks around a position straight away on the calling thread, returning once every one of them is resident.
+     * Useful before the first frame, so the player doesn't start looking at the boundary,
+     * and for replays, which need the same cells loaded on every run.
+     * @param x The X position, in cells.
+     * @param y The Y position, in cells.
+     */
+    public void Prefetch(float x, float y) throws IOException
+    {
+        //Mark the chunks as wanted, so they can't be evicted to make room for each other.
+        Update(x, y);
+        LoadWindow((int)x >> chunkShift, (int)y >> chunkShift);
+    }
+
+    /**
+     * Loads every chunk within the load radius of a chunk on the calling thread, returning once they're all resident.
+     * The chunks must already be marked as wanted on this tick.
+     */
+    private void LoadWindow(int centreX, int centreY) throws IOException
+    {
+        int radius;
+        synchronized (this) { radius = getEffectiveLoadRadius(); }
+
+        //Load them here rather than waiting on the loader, which may also be partway through reading some of them.
+        for (int cy=Math.max(0, centreY-radius); cy<=Math.min(chunksY-1, centreY+radius); cy++)
+        {
+            for (int cx=Math.max(0, centreX-radius); cx<=Math.min(chunksX-1, centreX+radius); cx++)
+            {
+                LoadChunk(cy * chunksX + cx, false);
+            }
+        }
+    }
+
+    /**
+     * Stops the loader thread, letting it finish any chunk it's reading, and closes the map file.
+     */
+    public void Close() throws IOException
+    {
+        closed = true;
+        loadQueue.add(StopLoader);
+        try { loader.join(); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        channel.close();
+    }
+
+    /**
+     * The loop run by the loader thread, loading queued chunks until the map is closed.
+     */
+    private void LoaderLoop()
+    {
+        while (!closed)
+        {
+            int chunk;
+            try { chunk = loadQueue.take(); }
+            catch (InterruptedException e) { return; }
+            if (chunk == StopLoader) { return; }
+
+            try { LoadChunk(chunk, true); }
+            catch (IOException e)
+            {
+                //Leave the chunk as boundary rather than taking the game down, and let it be queued again later.
+                synchronized (this) { queued[chunk] = false; }
+                ReportFailure(e);
+            }
+        }
+    }
+
+    /**
+     * Logs a chunk failing to load, unless one already has.
+     */
+    private void ReportFailure(IOException e)
+    {
+        synchronized (this)
+        {
+            if (reportedFailure) { return; }
+            reportedFailure = true;
+        }
+        System.err.println("Failed to stream map chunk: " + e.getMessage());
+    }
+
+    /**
+     * Reads a single chunk from the file and makes it resident, evicting the least recently wanted chunk if over budget.
+     * Chunks that are no longer wanted are dropped rather than evicting a chunk that is,
+     * as are chunks read in the background while synchronous, which must only load on the thread calling Update().
+     */
+    private void LoadChunk(int chunk, boolean background) throws IOException
+    {
+        //Skip chunks that were loaded since being queued.
+        if (resident.get(chunk) != null)
+        {
+            synchronized (this) { queued[chunk] = false; }
+            return;
+        }
+
+        //Read the chunk's cells.
+        int chunkBytes = chunkSize * chunkSize;
+        byte[] cells = new byte[chunkBytes];
+        ByteBuffer buffer = ByteBuffer.wrap(cells);
+        long position = chunksStart + (long)chunk * chunkBytes;
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0) { throw new IOException("Map file is truncated."); }
+        }
+        if (!GadzookMapFile.AreCellsValid(buffer, 0, chunkBytes, fileDefinitionCount)) { throw new IOException("Map chunk " + chunk + " is corrupt."); }
+
+        synchronized (this)
+        {
+            queued[chunk] = false;
+            if (resident.get(chunk) != null || (background && synchronous)) { return; }
+
+            //Make room, then publish the chunk to readers.
+            if (residentOrder.size() >= maxResident && !EvictLeastRecentlyWanted()) { return; }
+            resident.set(chunk, cells);
+            residentOrder.put(chunk, Boolean.TRUE);
+            MarkChanged();
+        }
+    }
+
+    /**
+     * Evicts the resident chunk that was wanted the longest time ago, never one that was wanted on the current tick.
+     * Chunks wanted this tick were all moved to the back by Update(), so this only ever looks past a few of them.
+     * Must be called while holding the lock on this map.
+     * @return Whether a chunk was evicted, false if every resident chunk is wanted right now.
+     */
+    private boolean EvictLeastRecentlyWanted()
+    {
+        Iterator<Integer> chunks = residentOrder.keySet().iterator();
+        while (chunks.hasNext())
+        {
+            int chunk = chunks.next();
+            if (lastWanted[chunk] == tick) { continue; }
+
+            chunks.remove();
+            resident.set(chunk, null);
+            MarkChanged();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the definition id of the cell at the given position, or the boundary id if its chunk isn't resident.
+     */
+    @Override
+    public int getCellId(int x, int y)
+    {
+        byte[] chunk = resident.get((y >> chunkShift) * chunksX + (x >> chunkShift));
+        if (chunk == null) { return boundaryId; }
+        return chunk[((y & chunkMask) << chunkShift) | (x & chunkMask)] & 0xFF;
+    }
+
+    /**
+     * Returns whether the cell at the given position blocks rays and movement.
+     */
+    @Override
+    public boolean isSolid(int x, int y)
+    {
+        return solidById[getCellId(x, y)];
+    }
+
+    /**
+     * Streamed maps are read only.
+     */
+    @Override
+    public void setCellId(int x, int y, int id)
+    {
+        throw new UnsupportedOperationException("Streamed maps are read only.");
+    }
+}
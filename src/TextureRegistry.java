@@ -0,0 +1,395 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads textures and images once per file, and hands out integer ids for textures so map cells can refer to them cheaply.
+ * Loaded textures and images are cached under a memory budget, evicting the least recently used once over it.
+ * Evicted textures keep their id, and are read back in the next time they're asked for.
+ * The budget bounds what the registry holds on to, so anything still referencing an evicted texture keeps it alive.
+ *
+ * Small textures are packed together into shared atlas pages, so the textures of a map sit next to each other
+ * in memory rather than scattered across the heap. A page is freed once every texture packed into it is gone.
+ * A texture read back in after being evicted goes back into its old slot if its page is still around,
+ * so evicting and reloading doesn't keep growing the pages.
+ * A page counts against the budget as a whole for as long as any cached texture is packed into it,
+ * in place of the textures themselves, and stops counting once the last of them is evicted.
+ *
+ * Files are decoded outside the lock, so loading on one thread never holds up another (such as an AssetLoader's).
+ */
+public class TextureRegistry {
+
+    /**
+     * The id of no texture.
+     */
+    public static final int NoTexture = -1;
+
+    //The memory budget of the shared registry, in bytes.
+    private static final long DefaultBudget = 128L * 1024 * 1024;
+
+    //The size of an atlas page, and the biggest texture packed into one, in ints.
+    private static final int AtlasPageSize = 1 << 20;
+    private static final int MaxAtlasTexture = AtlasPageSize / 16;
+
+    //The registry used by the engine's own loading.
+    private static final TextureRegistry shared = new TextureRegistry(DefaultBudget);
+
+    //The most bytes of textures and images to keep cached.
+    private final long memoryBudget;
+
+    //The id of each texture path, and the path and loaded texture (null when not loaded) of each id.
+    private final HashMap<String, Integer> idsByPath = new HashMap<>();
+    private final ArrayList<String> paths = new ArrayList<>();
+    private final ArrayList<GadzookTexture> textures = new ArrayList<>();
+
+    //The loaded images, by path.
+    private final HashMap<String, BufferedImage> images = new HashMap<>();
+
+    //Everything cached (texture ids, and image paths) with its size in bytes, least recently used first.
+    private final LinkedHashMap<Object, Long> cached = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    //The atlas page being packed into, and how much of it is used.
+    private int[] atlasPage;
+    private int atlasUsed;
+
+    //Where each texture id was last packed, null for textures too big to pack.
+    private final ArrayList<AtlasSlot> slots = new ArrayList<>();
+
+    //The atlas pages holding cached textures, with how many they hold.
+    private final IdentityHashMap<int[], Integer> pageUses = new IdentityHashMap<>();
+
+    /**
+     * Creates a registry that keeps at most the given number of bytes of textures and images cached.
+     */
+    public TextureRegistry(long memoryBudget_)
+    {
+        memoryBudget = memoryBudget_;
+    }
+
+    /**
+     * Returns the registry shared across the engine.
+     */
+    public static TextureRegistry getShared() { return shared; }
+
+    /**
+     * Returns the key a file path is cached under, so different spellings of the same path share an entry.
+     */
+    private static String KeyOf(String filePath)
+    {
+        return Path.of(filePath).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Loads the texture at a file path if it isn't already, and returns its id.
+     */
+    public int Load(String filePath) throws IOException
+    {
+        String key = KeyOf(filePath);
+        synchronized (this)
+        {
+            Integer id = idsByPath.get(key);
+            if (id != null && textures.get(id) != null)
+            {
+                cached.get(id);
+                return id;
+            }
+        }
+
+        //Only hand out an id once the file's been read, so unreadable files don't leave one behind.
+        return Adopt(filePath, new GadzookTexture(ReadImage(filePath), filePath));
+    }
+
+    /**
+     * Loads the texture at a file path if it isn't already, and returns it.
+     */
+    public GadzookTexture LoadTexture(String filePath) throws IOException
+    {
+        return getTexture(Load(filePath));
+    }
+
+    /**
+     * Adds a texture already read in from a file (such as by an AssetLoader), packing it into the atlas, and returns its id.
+     * If the file's texture is already loaded, that's kept and the given one is dropped.
+     */
+    public synchronized int Adopt(String filePath, GadzookTexture texture)
+    {
+        String key = KeyOf(filePath);
+        Integer id = idsByPath.get(key);
+        if (id != null && textures.get(id) != null)
+        {
+            cached.get(id);
+            return id;
+        }
+        if (id == null)
+        {
+            id = paths.size();
+            paths.add(filePath);
+            textures.add(null);
+            slots.add(null);
+            idsByPath.put(key, id);
+        }
+
+        Insert(id, texture);
+        return id;
+    }
+
+    /**
+     * Packs a texture and caches it under an id that isn't currently loaded.
+     * Must be called while holding the lock on this registry.
+     */
+    private void Insert(int id, GadzookTexture texture)
+    {
+        int[] page = Pack(id, texture);
+        textures.set(id, texture);
+        if (page == null)
+        {
+            Cache(id, texture.getFootprint() * 4L);
+            return;
+        }
+
+        //Packed textures are paid for by their page, which is counted once for everything in it.
+        Integer uses = pageUses.get(page);
+        if (uses == null) { cachedBytes += AtlasPageSize * 4L; }
+        pageUses.put(page, uses == null ? 1 : uses + 1);
+        Cache(id, 0);
+    }
+
+    /**
+     * Drops an evicted texture, and stops counting its atlas page once nothing cached is packed into it.
+     * Must be called while holding the lock on this registry.
+     */
+    private void Release(int id)
+    {
+        textures.set(id, null);
+        AtlasSlot slot = slots.get(id);
+        int[] page = slot == null ? null : slot.page.get();
+        Integer uses = page == null ? null : pageUses.get(page);
+        if (uses == null) { return; }
+        if (uses > 1)
+        {
+            pageUses.put(page, uses - 1);
+            return;
+        }
+
+        pageUses.remove(page);
+        cachedBytes -= AtlasPageSize * 4L;
+        if (page == atlasPage) { atlasPage = null; }
+    }
+
+    /**
+     * Adds an image already read in from a file (such as by an AssetLoader).
+     * If the file's image is already loaded, that's kept and the given one is dropped.
+     */
+    public void AdoptImage(String filePath, BufferedImage image)
+    {
+        InsertImage(KeyOf(filePath), image);
+    }
+
+    /**
+     * Caches an image under a key unless one already is, and returns the one kept.
+     */
+    private synchronized BufferedImage InsertImage(String key, BufferedImage image)
+    {
+        BufferedImage existing = images.get(key);
+        if (existing != null)
+        {
+            cached.get(key);
+            return existing;
+        }
+        images.put(key, image);
+        Cache(key, (long)image.getWidth() * image.getHeight() * 4);
+        return image;
+    }
+
+    /**
+     * Returns whether the texture at a file path is loaded.
+     */
+    public synchronized boolean isLoaded(String filePath)
+    {
+        Integer id = idsByPath.get(KeyOf(filePath));
+        return id != null && textures.get(id) != null;
+    }
+
+    /**
+     * Returns whether the image at a file path is loaded.
+     */
+    public synchronized boolean isImageLoaded(String filePath) { return images.containsKey(KeyOf(filePath)); }
+
+    /**
+     * Returns the texture with the given id, reading it back in if it was evicted.
+     * Returns null for NoTexture.
+     */
+    public GadzookTexture getTexture(int id) throws IOException
+    {
+        if (id == NoTexture) { return null; }
+        String path;
+        synchronized (this)
+        {
+            GadzookTexture texture = textures.get(id);
+            if (texture != null)
+            {
+                cached.get(id);
+                return texture;
+            }
+            path = paths.get(id);
+        }
+
+        //Read it back in without holding the lock, then keep whichever copy got there first.
+        GadzookTexture read = new GadzookTexture(ReadImage(path), path);
+        synchronized (this)
+        {
+            GadzookTexture texture = textures.get(id);
+            if (texture != null)
+            {
+                cached.get(id);
+                return texture;
+            }
+            Insert(id, read);
+            return read;
+        }
+    }
+
+    /**
+     * Loads the image at a file path if it isn't already, and returns a copy of it.
+     * Only the decoding is shared, so the copy is the caller's own to draw on.
+     */
+    public BufferedImage LoadImage(String filePath) throws IOException
+    {
+        BufferedImage image = LoadSharedImage(filePath);
+        ColorModel model = image.getColorModel();
+        return new BufferedImage(model, image.copyData(null), model.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Loads the image at a file path if it isn't already, and returns the cached image itself.
+     * It's shared with every other caller loading it, so must only ever be read from (as Sprite does).
+     */
+    BufferedImage LoadSharedImage(String filePath) throws IOException
+    {
+        String key = KeyOf(filePath);
+        synchronized (this)
+        {
+            BufferedImage image = images.get(key);
+            if (image != null)
+            {
+                cached.get(key);
+                return image;
+            }
+        }
+        return InsertImage(key, ReadImage(filePath));
+    }
+
+    /**
+     * Reads an image from a file, failing if it isn't one.
+     */
+    static BufferedImage ReadImage(String filePath) throws IOException
+    {
+        BufferedImage image = ImageIO.read(new File(filePath));
+        if (image == null) { throw new IOException("'" + filePath + "' is not a readable image."); }
+        return image;
+    }
+
+    /**
+     * Packs a texture into an atlas page if it's small enough, back into the slot its id had before if that page is still around,
+     * otherwise into the current page, starting a new page when it's full.
+     * Any evicted copy still using the old slot reads the same texels from the same file, so writing over it is harmless.
+     * Returns the page it was packed into, or null if it's too big to pack.
+     * Must be called while holding the lock on this registry.
+     */
+    private int[] Pack(int id, GadzookTexture texture)
+    {
+        int footprint = texture.getFootprint();
+        if (footprint > MaxAtlasTexture)
+        {
+            slots.set(id, null);
+            return null;
+        }
+
+        AtlasSlot slot = slots.get(id);
+        int[] page = slot == null || slot.footprint != footprint ? null : slot.page.get();
+        if (page != null)
+        {
+            texture.PackInto(page, slot.offset);
+            return page;
+        }
+
+        if (atlasPage == null || atlasUsed + footprint > AtlasPageSize)
+        {
+            atlasPage = new int[AtlasPageSize];
+            atlasUsed = 0;
+        }
+        texture.PackInto(atlasPage, atlasUsed);
+        slots.set(id, new AtlasSlot(atlasPage, atlasUsed, footprint));
+        atlasUsed += footprint;
+        return atlasPage;
+    }
+
+    /**
+     * Adds an entry to the cache, evicting the least recently used entries (other than it) until back under budget.
+     */
+    private void Cache(Object key, long bytes)
+    {
+        cached.put(key, bytes);
+        cachedBytes += bytes;
+
+        Iterator<Map.Entry<Object, Long>> entries = cached.entrySet().iterator();
+        while (cachedBytes > memoryBudget && entries.hasNext())
+        {
+            Map.Entry<Object, Long> eldest = entries.next();
+            if (eldest.getKey().equals(key)) { continue; }
+            if (eldest.getKey() instanceof Integer) { Release((Integer)eldest.getKey()); }
+            else { images.remove(eldest.getKey()); }
+            cachedBytes -= eldest.getValue();
+            entries.remove();
+        }
+    }
+
+    /**
+     * Returns the file path of the texture with the given id.
+     */
+    public synchronized String getPath(int id) { return paths.get(id); }
+
+    /**
+     * Returns the number of texture ids handed out.
+     */
+    public synchronized int getTextureCount() { return paths.size(); }
+
+    /**
+     * Returns the number of bytes of textures, images and atlas pages currently cached.
+     */
+    public synchronized long getCachedBytes() { return cachedBytes; }
+
+    /**
+     * Returns the most bytes of textures and images kept cached.
+     */
+    public long getMemoryBudget() { return memoryBudget; }
+
+    /**
+     * Where a texture was packed into an atlas page.
+     * The page is only weakly held, so it's still freed once no texture uses it.
+     */
+    private static class AtlasSlot
+    {
+        final WeakReference<int[]> page;
+        final int offset;
+        final int footprint;
+
+        AtlasSlot(int[] page_, int offset_, int footprint_)
+        {
+            page = new WeakReference<>(page_);
+            offset = offset_;
+            footprint = footprint_;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Represents a billboard sprite standing in the world of a raycast scene.
+ * Billboards always face the camera, are drawn standing on the floor, and are hidden behind walls.
+ * Move sprites through the SpriteGrid holding them, so it can keep track of where they are.
+ */
+public class WorldSprite extends GameObject {
+
+    //The position of the sprite's centre on the floor, in world units.
+    float x;
+    float y;
+
+    //The width and height of the sprite, in world units.
+    float size;
+
+    //The texture drawn on the sprite. Fully transparent texels are skipped.
+    GadzookTexture texture;
+
+    //The bucket of the grid holding this sprite, and its slot in that bucket, or -1 when not in a grid.
+    int bucket = -1;
+    int slot = -1;
+
+    /**
+     * Creates a sprite at the given position (in world units), with the given texture and size (in world units).
+     */
+    public WorldSprite(GadzookTexture texture_, float x_, float y_, float size_)
+    {
+        texture = texture_;
+        x = x_;
+        y = y_;
+        size = size_;
+    }
+
+    /**
+     * Returns the X position of the sprite, in world units.
+     */
+    public float getX() { return x; }
+
+    /**
+     * Returns the Y position of the sprite, in world units.
+     */
+    public float getY() { return y; }
+
+    /**
+     * Returns the width and height of the sprite, in world units.
+     */
+    public float getSize() { return size; }
+
+    /**
+     * Returns the texture drawn on the sprite.
+     */
+    public GadzookTexture getTexture() { return texture; }
+
+    /**
+     * Sets the texture drawn on the sprite.
+     */
+    public void setTexture(GadzookTexture texture_) { texture = texture_; }
+}